@@ -0,0 +1,108 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips random runs of bits through every kind of BitWriter and BitReader: byte
+ * array, heap and direct ByteBuffer in both byte orders, and stream. Run with assertions
+ * enabled or not; a failure throws an AssertionError either way
+ * 
+ * @author Jason Malia
+ */
+
+class BitIOTest {
+	
+	private static final int RUNS = 200;
+	
+	public static void main(String args[])
+	{
+		Random random = new Random(1);
+		for (int run=0; run<RUNS; run++)
+		{
+			//short runs end inside the first word, long ones cross many
+			int n = run%4==0 ? random.nextInt(16) : random.nextInt(5000);
+			long[] values = new long[n];
+			int[] widths = new int[n];
+			long bits = 0;
+			for (int i=0; i<n; i++)
+			{
+				widths[i] = 1+random.nextInt(56);
+				values[i] = random.nextLong() & -1L>>>(64-widths[i]);
+				bits += widths[i];
+			}
+			int size = (int)((bits+7)/8);
+			
+			BitWriter array = new BitWriter(1);
+			write(array, values, widths, bits);
+			byte[] expected = array.toByteArray();
+			check(expected.length==size, "array writer stored "+expected.length+" bytes rather than "+size);
+			
+			for (ByteBuffer target: new ByteBuffer[]{ByteBuffer.allocate(size), ByteBuffer.allocateDirect(size),
+				ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN), ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN)})
+			{
+				write(new BitWriter(target), values, widths, bits);
+				check(target.position()==size, "buffer writer stored "+target.position()+" bytes rather than "+size);
+				target.flip();
+				byte[] stored = new byte[size];
+				target.duplicate().get(stored);
+				check(Arrays.equals(stored, expected), "buffer writer stored different bytes");
+				read(new BitReader(target), values, widths, target.isDirect() ? "direct buffer" : "heap buffer");
+				check(target.position()==0, "buffer reader moved the buffer");
+			}
+			
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			write(new BitWriter(stream), values, widths, bits);
+			check(Arrays.equals(stream.toByteArray(), expected), "stream writer wrote different bytes");
+			
+			read(new BitReader(expected), values, widths, "array");
+			byte[] padded = new byte[size+7];
+			System.arraycopy(expected, 0, padded, 3, size);
+			read(new BitReader(padded, 3, size), values, widths, "part of an array");
+			read(new BitReader(new ByteArrayInputStream(expected)), values, widths, "stream");
+		}
+		System.out.println("BitIOTest passed "+RUNS+" runs");
+	}
+	
+	/**
+	 * Writes the bits, checking the bit count as it goes and at the end
+	 */
+	private static void write(BitWriter out, long[] values, int[] widths, long bits)
+	{
+		long written = 0;
+		for (int i=0; i<values.length; i++)
+		{
+			out.writeBits(values[i], widths[i]);
+			written += widths[i];
+			check(out.getBitCount()==written, "bit count "+out.getBitCount()+" after writing "+written+" bits");
+		}
+		check(out.finish()==bits, "finish did not return the bit count");
+	}
+	
+	/**
+	 * Reads the bits back, checking each value and the bit position
+	 */
+	private static void read(BitReader in, long[] values, int[] widths, String kind)
+	{
+		long position = 0;
+		for (int i=0; i<values.length; i++)
+		{
+			long value = in.readBits(widths[i]);
+			check(value==values[i], kind+" reader read "+value+" rather than "+values[i]+" at bit "+position);
+			position += widths[i];
+			check(in.getBitPosition()==position, kind+" reader at bit "+in.getBitPosition()+" rather than "+position);
+		}
+		//the padding and what comes past the end are 0 bits
+		check(in.readBits(56)==0, kind+" reader read 1 bits past the end");
+	}
+	
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+}
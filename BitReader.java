@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Represent a reader of bits, most significant bit first. Bits are loaded into a 64-bit
+ * register a whole word at a time from a byte array, a ByteBuffer or a chunk buffer
+ * filled from an InputStream. Past the end of the input the reader returns 0 bits.
+ * 
+ * A refill tops the register up to at least 56 bits with a single 8-byte load and
+ * takes only the whole bytes that fit, so the bits under the count are the start of
+ * the next byte; the following load puts the same bits back in the same place.
+ * 
+ * @author Jason Malia
+ */
+
+public class BitReader {
+	
+	//loads 8 big-endian bytes from a byte array at any offset
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final int CHUNK = 8192;
+	
+	//the bits not read yet, left aligned, and how many of them there are
+	private long buffer;
+	private int count;
+	//the input bytes, or null when reading a ByteBuffer without an array
+	private byte[] bytes;
+	private int pos;
+	private int limit;
+	//the bytes of the input before pos that are no longer in the chunk buffer
+	private long base;
+	private final InputStream in;
+	private final ByteBuffer source;
+	
+	/**
+	 * Constructs a reader of a byte array
+	 * 
+	 * @param data The bytes to read
+	 */
+
+	public BitReader(byte[] data)
+	{
+		this(data, 0, data.length);
+	}
+	
+	/**
+	 * Constructs a reader of part of a byte array
+	 * 
+	 * @param data The bytes to read
+	 * @param offset Where the bytes start
+	 * @param length The number of bytes
+	 */
+
+	public BitReader(byte[] data, int offset, int length)
+	{
+		bytes = data;
+		pos = offset;
+		limit = offset+length;
+		base = -offset;
+		in = null;
+		source = null;
+	}
+	
+	/**
+	 * Constructs a reader of a ByteBuffer, from its position to its limit. The buffer
+	 * itself is left as it is
+	 * 
+	 * @param data The buffer to read
+	 */
+
+	public BitReader(ByteBuffer data)
+	{
+		in = null;
+		if (data.hasArray())
+		{
+			bytes = data.array();
+			pos = data.arrayOffset()+data.position();
+			limit = data.arrayOffset()+data.limit();
+			base = -pos;
+			source = null;
+		}
+		else
+		{
+			source = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+			pos = data.position();
+			limit = data.limit();
+			base = -pos;
+		}
+	}
+	
+	/**
+	 * Constructs a reader of a stream through a chunk buffer
+	 * 
+	 * @param in The stream to read
+	 */
+
+	public BitReader(InputStream in)
+	{
+		this.in = in;
+		bytes = new byte[CHUNK];
+		source = null;
+	}
+	
+	/**
+	 * Tops the register up to at least 56 bits, or to all the input there is left
+	 * 
+	 * @throws UncheckedIOException if the stream being read fails
+	 */
+	public void refill()
+	{
+		if (count>=56)
+		{
+			return;
+		}
+		if (pos+8<=limit)
+		{
+			long word = bytes!=null ? (long)LONGS.get(bytes, pos) : source.getLong(pos);
+			buffer |= word>>>count;
+			pos += (63-count)>>>3;
+			count |= 56;
+		}
+		else
+		{
+			refillSlowly();
+		}
+	}
+	
+	/**
+	 * Loads 8 big-endian bytes, with 0's for any past the end of the data
+	 * 
+	 * @param data The bytes to load from
+	 * @param pos Where the first byte is, which may be past the end
+	 * @return the bytes
+	 */
+	static long load(byte[] data, int pos)
+	{
+		if (pos+8<=data.length)
+		{
+			return (long)LONGS.get(data, pos);
+		}
+		long word = 0;
+		for (int i=0; i<8; i++)
+		{
+			word = word<<8 | (pos+i<data.length ? data[pos+i] & 0xFF : 0);
+		}
+		return word;
+	}
+	
+	/**
+	 * Tops the register up a byte at a time near the end of the input or chunk
+	 */
+	private void refillSlowly()
+	{
+		while (count<56)
+		{
+			if (pos<limit)
+			{
+				long b = bytes!=null ? bytes[pos] : source.get(pos);
+				buffer |= (b & 0xFF)<<(56-count);
+				pos++;
+				count += 8;
+			}
+			else if (in==null || !fillChunk())
+			{
+				return;
+			}
+			else if (pos+8<=limit)
+			{
+				refill();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Moves the unread bytes to the front of the chunk and reads more after them
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean fillChunk()
+	{
+		System.arraycopy(bytes, pos, bytes, 0, limit-pos);
+		base += pos;
+		limit -= pos;
+		pos = 0;
+		try
+		{
+			int n = in.read(bytes, limit, bytes.length-limit);
+			if (n<=0)
+			{
+				return false;
+			}
+			limit += n;
+			return true;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Returns the next bits without reading them. Only the bits loaded by the last
+	 * refill are there, the rest are 0
+	 * 
+	 * @param n The number of bits, from 1 to 56
+	 * @return the bits, right aligned
+	 */
+	public long peekBits(int n)
+	{
+		return buffer>>>(64-n);
+	}
+	
+	/**
+	 * Skips over bits that have been peeked at
+	 * 
+	 * @param n The number of bits, up to the number loaded by the last refill
+	 */
+	public void skipBits(int n)
+	{
+		buffer <<= n;
+		count -= n;
+	}
+	
+	/**
+	 * Reads bits, refilling if needed
+	 * 
+	 * @param n The number of bits, from 1 to 56
+	 * @return the bits, right aligned
+	 * @throws UncheckedIOException if the stream being read fails
+	 */
+	public long readBits(int n)
+	{
+		if (count<n)
+		{
+			refill();
+		}
+		long bits = buffer>>>(64-n);
+		buffer <<= n;
+		count -= n;
+		return bits;
+	}
+	
+	/**
+	 * Returns the number of bits read or skipped. Reading past the end of the input
+	 * still counts
+	 * 
+	 * @return the bit position
+	 */
+	public long getBitPosition()
+	{
+		return (base+pos)*8-count;
+	}
+}
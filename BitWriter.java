@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Represent a writer of bits, most significant bit first. Bits collect in a 64-bit
+ * register that is stored a whole word at a time into a growing byte array, a
+ * ByteBuffer, or a chunk buffer that is written to an OutputStream when full
+ * 
+ * @author Jason Malia
+ */
+
+public class BitWriter {
+	
+	//stores a long into a byte array as 8 big-endian bytes at any offset
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final int CHUNK = 8192;
+	
+	//the bits not stored yet, left aligned, and how many of them there are
+	private long buffer;
+	private int count;
+	//the stored bytes not yet written to the stream, or all of them when there is no stream
+	private byte[] bytes;
+	private int pos;
+	//the bytes written to the stream or buffer before those in bytes
+	private long flushed;
+	private final OutputStream out;
+	private final ByteBuffer target;
+	private final boolean swap;
+	
+	/**
+	 * Constructs a writer into a byte array that grows as needed
+	 * 
+	 * @param initialCapacity The number of bytes to start with
+	 */
+
+	public BitWriter(int initialCapacity)
+	{
+		bytes = new byte[Math.max(16, initialCapacity)];
+		out = null;
+		target = null;
+		swap = false;
+	}
+	
+	/**
+	 * Constructs a writer into a ByteBuffer, starting at its position. The position
+	 * moves as whole words are stored
+	 * 
+	 * @param target The buffer to write into
+	 */
+
+	public BitWriter(ByteBuffer target)
+	{
+		this.target = target;
+		swap = target.order()!=ByteOrder.BIG_ENDIAN;
+		out = null;
+		bytes = null;
+	}
+	
+	/**
+	 * Constructs a writer that writes to a stream through a chunk buffer
+	 * 
+	 * @param out The stream to write to
+	 */
+
+	public BitWriter(OutputStream out)
+	{
+		this.out = out;
+		bytes = new byte[CHUNK];
+		target = null;
+		swap = false;
+	}
+	
+	/**
+	 * Writes the low bits of a value
+	 * 
+	 * @param value The value holding the bits
+	 * @param n The number of bits, from 0 to 64
+	 * @throws java.nio.BufferOverflowException if a ByteBuffer being written fills up
+	 * @throws UncheckedIOException if the stream being written fails
+	 */
+	public void writeBits(long value, int n)
+	{
+		if (n==0)
+		{
+			return;
+		}
+		value &= -1L>>>(64-n);
+		int free = 64-count;
+		
+		if (n<free)
+		{
+			buffer |= value<<(free-n);
+			count += n;
+		}
+		//the register fills up, so store it and keep what did not fit
+		else
+		{
+			buffer |= value>>>(n-free);
+			putLong(buffer);
+			count = n-free;
+			buffer = count==0 ? 0 : value<<(64-count);
+		}
+	}
+	
+	/**
+	 * Writes 0 bits up to the next byte boundary
+	 */
+	public void alignToByte()
+	{
+		writeBits(0, -count & 7);
+	}
+	
+	/**
+	 * Returns the number of bits written
+	 * 
+	 * @return the bit count
+	 */
+	public long getBitCount()
+	{
+		return (flushed+pos)*8+count;
+	}
+	
+	/**
+	 * Stores the whole bytes in the register and writes everything stored to the stream,
+	 * if there is one. Bits short of a whole byte stay in the register
+	 * 
+	 * @throws UncheckedIOException if the stream being written fails
+	 */
+	public void flush()
+	{
+		drainBytes();
+		if (out!=null)
+		{
+			writeOut();
+			try
+			{
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Pads the bits written with 0's to a whole byte and stores them all
+	 * 
+	 * @return the number of bits written, not counting the padding
+	 * @throws UncheckedIOException if the stream being written fails
+	 */
+	public long finish()
+	{
+		long bitCount = getBitCount();
+		alignToByte();
+		flush();
+		return bitCount;
+	}
+	
+	/**
+	 * Returns the bytes stored into the byte array
+	 * 
+	 * @return a copy of the bytes stored
+	 * @throws IllegalStateException if the writer writes to a buffer or stream
+	 */
+	public byte[] toByteArray()
+	{
+		if (out!=null || target!=null)
+		{
+			throw new IllegalStateException("the bytes went to a buffer or stream");
+		}
+		return Arrays.copyOf(bytes, pos);
+	}
+	
+	/**
+	 * Moves the whole bytes out of the register so it holds less than a byte
+	 */
+	private void drainBytes()
+	{
+		while (count>=8)
+		{
+			if (target!=null)
+			{
+				target.put((byte)(buffer>>>56));
+				flushed++;
+			}
+			else
+			{
+				makeRoom(1);
+				bytes[pos++] = (byte)(buffer>>>56);
+			}
+			buffer <<= 8;
+			count -= 8;
+		}
+	}
+	
+	/**
+	 * Stores a full register
+	 */
+	private void putLong(long word)
+	{
+		if (target!=null)
+		{
+			target.putLong(swap ? Long.reverseBytes(word) : word);
+			flushed += 8;
+			return;
+		}
+		makeRoom(8);
+		LONGS.set(bytes, pos, word);
+		pos += 8;
+	}
+	
+	/**
+	 * Makes room for n more bytes by growing the array or writing the chunk to the stream
+	 */
+	private void makeRoom(int n)
+	{
+		if (pos+n>bytes.length)
+		{
+			if (out!=null)
+			{
+				writeOut();
+			}
+			else
+			{
+				bytes = Arrays.copyOf(bytes, Math.max(pos+n, bytes.length*2));
+			}
+		}
+	}
+	
+	/**
+	 * Writes the chunk to the stream
+	 */
+	private void writeOut()
+	{
+		try
+		{
+			out.write(bytes, 0, pos);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		flushed += pos;
+		pos = 0;
+	}
+}
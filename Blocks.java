@@ -0,0 +1,127 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Represent the framing of the Huffman streams. The encoded bits are cut into blocks,
+ * each the number of bits as a Varint followed by the bits padded with 0's to a whole
+ * byte. A block holds up to BLOCK_SIZE bytes and a slice more, so both sides get by
+ * with a buffer of CAPACITY bytes however long the stream is
+ * 
+ * @author Jason Malia
+ */
+
+class Blocks {
+	
+	//the size at which a block is written out
+	static final int BLOCK_SIZE = 1<<16;
+	//the number of symbols encoded between checks of the block size
+	static final int SLICE = 1024;
+	//the longest encoding of a symbol, the escape and its literal, in whole bytes
+	private static final int MAX_SYMBOL_BYTES = (CodeLengths.MAX_LENGTH+DecodeTable.LITERAL_BITS+7)/8;
+	//the size of the buffer holding a block, with room for a slice and a surrogate pair
+	//past BLOCK_SIZE and for the 8-byte stores of the bit writer
+	static final int CAPACITY = BLOCK_SIZE+(SLICE+2)*MAX_SYMBOL_BYTES+8;
+	
+	private Blocks()
+	{
+	}
+	
+	/**
+	 * Returns a bit writer that fills a block buffer from the start
+	 * 
+	 * @param block The block buffer, CAPACITY bytes long
+	 * @return the bit writer
+	 */
+	static BitWriter writer(byte[] block)
+	{
+		return new BitWriter(ByteBuffer.wrap(block));
+	}
+	
+	/**
+	 * Returns whether a block is full enough to write out
+	 * 
+	 * @param bits The writer of the block
+	 * @return true if the block holds BLOCK_SIZE bytes or more
+	 */
+	static boolean isFull(BitWriter bits)
+	{
+		return bits.getBitCount()>=BLOCK_SIZE*8L;
+	}
+	
+	/**
+	 * Writes a block out, unless it is empty
+	 * 
+	 * @param out The stream to write to
+	 * @param block The block buffer
+	 * @param bits The writer of the block, which is finished
+	 * @throws IOException if the stream fails
+	 */
+	static void write(OutputStream out, byte[] block, BitWriter bits) throws IOException
+	{
+		long bitLength = bits.finish();
+		if (bitLength==0)
+		{
+			return;
+		}
+		Varint.write(out, bitLength);
+		out.write(block, 0, (int)((bitLength+7)/8));
+	}
+	
+	/**
+	 * Reads the next block
+	 * 
+	 * @param in The stream to read from
+	 * @param block The block buffer, CAPACITY bytes long
+	 * @return the number of bits in the block, or -1 at the end of the stream
+	 * @throws IOException if the stream fails, ends inside a block, or holds a block
+	 * larger than the buffer
+	 */
+	static long read(InputStream in, byte[] block) throws IOException
+	{
+		long bitLength = Varint.read(in);
+		if (bitLength<0)
+		{
+			return -1;
+		}
+		if (bitLength==0 || bitLength>(CAPACITY-8)*8L)
+		{
+			throw new IOException("invalid block length "+bitLength);
+		}
+		
+		int length = (int)((bitLength+7)/8);
+		for (int n=0; n<length; )
+		{
+			int read = in.read(block, n, length-n);
+			if (read<0)
+			{
+				throw new EOFException("stream ends inside a block");
+			}
+			n += read;
+		}
+		return bitLength;
+	}
+	
+	/**
+	 * Decodes a block read by read
+	 * 
+	 * @param codec The Encoder/Decoder with the codes of the block
+	 * @param block The block buffer
+	 * @param bitLength The number of bits in the block
+	 * @return the decoded characters
+	 * @throws IOException if the block does not decode
+	 */
+	static String decode(HuffmanEncoderDecoder codec, byte[] block, long bitLength) throws IOException
+	{
+		try
+		{
+			return codec.decode(new BitReader(block, 0, (int)((bitLength+7)/8)), bitLength);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("invalid block", e);
+		}
+	}
+}
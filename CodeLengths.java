@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * Computes Huffman code lengths straight from symbol weights, for building codes
+ * that are assigned canonically from their lengths
+ * 
+ * @author Jason Malia
+ */
+
+class CodeLengths {
+	
+	//the longest code the packed codes and decode tables can hold
+	static final int MAX_LENGTH = 56;
+	
+	/**
+	 * Builds a Huffman tree with the two-queue algorithm. The symbols are sorted by weight
+	 * once; after that the two lightest nodes are always at the head of either the sorted
+	 * symbols or the queue of merged nodes, whose weights only grow, so each merge takes
+	 * constant time. Ties go to the symbol, then to the lower index, which is the tree a
+	 * priority queue ordered by weight and then by order of creation builds. Weights that
+	 * add up to more than a long holds stay at Long.MAX_VALUE, which only costs
+	 * optimality among the heaviest merges
+	 * 
+	 * @param weights The weight of each symbol
+	 * @return the children of the merged nodes: merge k makes node n+k out of
+	 * children[2k] and children[2k+1], where nodes below n are the symbols. The last
+	 * merge makes the root
+	 */
+	static int[] tree(long[] weights)
+	{
+		int n = weights.length;
+		int[] order = sort(weights);
+		int[] children = new int[2*Math.max(0, n-1)];
+		long[] merged = new long[Math.max(0, n-1)];
+		int leaf = 0;
+		int head = 0;
+		
+		for (int k=0; k<n-1; k++)
+		{
+			long weight = 0;
+			for (int child=0; child<2; child++)
+			{
+				if (head<k && (leaf==n || merged[head]<weights[order[leaf]]))
+				{
+					children[2*k+child] = n+head;
+					weight = sum(weight, merged[head++]);
+				}
+				else
+				{
+					children[2*k+child] = order[leaf];
+					weight = sum(weight, weights[order[leaf++]]);
+				}
+			}
+			merged[k] = weight;
+		}
+		return children;
+	}
+	
+	/**
+	 * Computes optimal code lengths, the depths of the leaves of the tree built by tree.
+	 * A single symbol gets a length of 1
+	 * 
+	 * @param weights The weight of each symbol
+	 * @return the code length of each symbol
+	 */
+	static int[] lengths(long[] weights)
+	{
+		int n = weights.length;
+		int[] children = tree(weights);
+		int[] depths = new int[2*n-1 > 0 ? 2*n-1 : 0];
+		
+		//every merged node is made before its parent, so going backwards from the root
+		//reaches each node after its parent
+		for (int k=n-2; k>=0; k--)
+		{
+			depths[children[2*k]] = depths[n+k]+1;
+			depths[children[2*k+1]] = depths[n+k]+1;
+		}
+		int[] lengths = Arrays.copyOf(depths, n);
+		if (n==1)
+		{
+			lengths[0] = 1;
+		}
+		return lengths;
+	}
+	
+	/**
+	 * Sorts the symbols by weight, and by index when the weights are the same. The weight
+	 * and index are packed into one long when they fit, so the sort is over primitives
+	 * 
+	 * @param weights The weight of each symbol
+	 * @return the indexes of the symbols, in order
+	 */
+	private static int[] sort(long[] weights)
+	{
+		int n = weights.length;
+		int[] order = new int[n];
+		int bits = 32-Integer.numberOfLeadingZeros(Math.max(1, n-1));
+		long max = 0;
+		for (long weight: weights)
+		{
+			max = Math.max(max, weight);
+		}
+		
+		if (max<1L<<(63-bits))
+		{
+			long[] keys = new long[n];
+			for (int i=0; i<n; i++)
+			{
+				keys[i] = weights[i]<<bits | i;
+			}
+			Arrays.sort(keys);
+			for (int i=0; i<n; i++)
+			{
+				order[i] = (int)(keys[i] & ((1L<<bits)-1));
+			}
+			return order;
+		}
+		
+		Integer[] boxed = new Integer[n];
+		for (int i=0; i<n; i++)
+		{
+			boxed[i] = i;
+		}
+		Arrays.sort(boxed, (a, b) -> Long.compare(weights[a], weights[b]));
+		for (int i=0; i<n; i++)
+		{
+			order[i] = boxed[i];
+		}
+		return order;
+	}
+	
+	/**
+	 * Computes optimal code lengths that are no longer than maxLength with the
+	 * package-merge algorithm. The leaves, sorted by weight, are merged with the packages
+	 * made from pairing up the list one level deeper, maxLength-1 times; the cheapest
+	 * 2n-2 items of the last list then give every leaf a length of one for each level
+	 * it is chosen at
+	 * 
+	 * @param weights The weight of each symbol
+	 * @param maxLength The longest code allowed
+	 * @return the code length of each symbol
+	 * @throws IllegalArgumentException if maxLength bits cannot hold that many symbols
+	 */
+	static int[] limited(long[] weights, int maxLength)
+	{
+		int n = weights.length;
+		int[] lengths = new int[n];
+		if (maxLength<1 || maxLength>MAX_LENGTH || (maxLength<31 && (1<<maxLength)<n))
+		{
+			throw new IllegalArgumentException(n+" symbols do not fit in codes of at most "+maxLength+" bits");
+		}
+		if (n<=1)
+		{
+			Arrays.fill(lengths, 1);
+			return lengths;
+		}
+		
+		Integer[] order = new Integer[n];
+		for (int i=0; i<n; i++)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(weights[a], weights[b]));
+		long[] leaves = new long[n];
+		for (int i=0; i<n; i++)
+		{
+			leaves[i] = weights[order[i]];
+		}
+		
+		//packaged[level][k] tells whether item k of the list for that level is a package
+		boolean[][] packaged = new boolean[maxLength][];
+		packaged[maxLength-1] = new boolean[n];
+		long[] list = leaves;
+		
+		for (int level=maxLength-1; level>0; level--)
+		{
+			int pairs = list.length/2;
+			long[] merged = new long[n+pairs];
+			boolean[] flags = new boolean[n+pairs];
+			int i = 0;
+			int j = 0;
+			
+			//a leaf goes ahead of a package of the same weight
+			for (int k=0; k<merged.length; k++)
+			{
+				if (j==pairs || (i<n && leaves[i]<=sum(list[2*j], list[2*j+1])))
+				{
+					merged[k] = leaves[i++];
+				}
+				else
+				{
+					merged[k] = sum(list[2*j], list[2*j+1]);
+					flags[k] = true;
+					j++;
+				}
+			}
+			list = merged;
+			packaged[level-1] = flags;
+		}
+		
+		//the leaves chosen at a level are always the lightest ones, and each chosen
+		//package chooses the two items it was made of one level deeper
+		int selected = 2*n-2;
+		for (int level=0; level<maxLength && selected>0; level++)
+		{
+			int packages = 0;
+			for (int k=0; k<selected; k++)
+			{
+				if (packaged[level][k])
+				{
+					packages++;
+				}
+			}
+			for (int k=0; k<selected-packages; k++)
+			{
+				lengths[order[k]]++;
+			}
+			selected = 2*packages;
+		}
+		return lengths;
+	}
+	
+	/**
+	 * Adds two weights or counts, staying at Long.MAX_VALUE rather than overflowing
+	 * 
+	 * @param a The first, at least 0
+	 * @param b The second, at least 0
+	 * @return their sum, or Long.MAX_VALUE if it is more
+	 */
+	static long sum(long a, long b)
+	{
+		long sum = a+b;
+		return sum<0 ? Long.MAX_VALUE : sum;
+	}
+}
@@ -0,0 +1,572 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Represent the container format of compressed bytes, which holds everything it takes
+ * to check and decode it. It starts with a header:
+ * 
+ *   the magic bytes "HUFC" and the version, 1
+ *   the size of a shared code length table, 0 if there is none, then the table
+ *   the CRC32C of the header so far, 4 bytes big-endian
+ * 
+ * Then come the blocks, each decodable on its own given the header:
+ * 
+ *   the kind of block: OWN_TABLE, SHARED_TABLE, STORED, or END to end the blocks
+ *   the number of bytes the block decodes to, at most MAX_BLOCK_SIZE
+ *   the number of bytes of the payload
+ *   for OWN_TABLE, the size of the block's code length table, then the table
+ *   the payload: the bytes as HuffmanChannelEncoder encodes them with the block's
+ *   table, or the bytes themselves for STORED
+ *   the CRC32C of the block from its kind to the end of the payload, 4 bytes big-endian
+ * 
+ * After END there may be an index of the blocks, so a reader can find the block holding
+ * any offset of the decoded bytes without reading the blocks before it:
+ * 
+ *   the number of blocks, then for each block the number of bytes it decodes to and
+ *   the number of bytes it takes, kind to checksum
+ *   the CRC32C of the index so far, 4 bytes big-endian
+ *   the number of bytes of the index so far, 4 bytes big-endian
+ *   the magic bytes "HUFX"
+ * 
+ * A container without an index ends with END, so its last byte tells the two apart.
+ * Numbers are Varints and tables are written by getCodeLengths. The checksums cover
+ * what is stored, so a file is checked at the speed of CRC32C without decoding it
+ * 
+ * @author Jason Malia
+ */
+
+class Container {
+	
+	static final byte[] MAGIC = {'H', 'U', 'F', 'C'};
+	static final byte[] INDEX_MAGIC = {'H', 'U', 'F', 'X'};
+	static final int VERSION = 1;
+	//the kinds of blocks
+	static final int END = 0;
+	static final int OWN_TABLE = 1;
+	static final int SHARED_TABLE = 2;
+	static final int STORED = 3;
+	//the most bytes a block decodes to, which bounds what a reader allocates for one
+	static final int MAX_BLOCK_SIZE = 1<<24;
+	//the longest code length table of bytes: the count and up to 256 gaps and lengths
+	static final int MAX_TABLE = 3+256*3;
+	//the longest a header can be
+	static final int MAX_HEADER = MAGIC.length+1+Varint.MAX_BYTES+MAX_TABLE+4;
+	//the longest the start of a block can be, up to its table
+	static final int MAX_BLOCK_HEADER = 1+3*Varint.MAX_BYTES;
+	//the bytes at the very end of a container with an index
+	static final int FOOTER = 4+INDEX_MAGIC.length;
+	
+	private Container()
+	{
+	}
+	
+	/**
+	 * Represent a block that has been read and checked
+	 */
+	
+	static class Block
+	{
+		int kind;
+		int rawLength;
+		//the number of bytes of the whole block, kind to checksum
+		int length;
+		//the code lengths of a block with its own table
+		byte[] table;
+		//the payload, from its position to its limit
+		ByteBuffer payload;
+	}
+	
+	/**
+	 * Represent the index of a container: where each block starts in the decoded bytes and
+	 * in the container
+	 */
+	
+	static class Index
+	{
+		//the offsets where each block starts, and where the last one ends
+		long[] rawOffsets = new long[16];
+		long[] offsets = new long[16];
+		int count;
+		
+		/**
+		 * Constructs an index with no blocks yet
+		 * 
+		 * @param start The offset of the first block in the container, past the header
+		 */
+
+		Index(long start)
+		{
+			offsets[0] = start;
+		}
+		
+		/**
+		 * Adds the next block
+		 * 
+		 * @param rawLength The number of bytes the block decodes to
+		 * @param length The number of bytes the block takes, kind to checksum
+		 */
+		void add(long rawLength, long length)
+		{
+			if (count+1==offsets.length)
+			{
+				rawOffsets = Arrays.copyOf(rawOffsets, rawOffsets.length*2);
+				offsets = Arrays.copyOf(offsets, offsets.length*2);
+			}
+			rawOffsets[count+1] = rawOffsets[count]+rawLength;
+			offsets[count+1] = offsets[count]+length;
+			count++;
+		}
+		
+		/**
+		 * Returns the block that holds an offset of the decoded bytes
+		 * 
+		 * @param rawOffset The offset, from 0 up to the number of bytes the blocks decode to
+		 * @return the index of the block, which for a block of 0 bytes is the next one
+		 */
+		int find(long rawOffset)
+		{
+			int low = 0;
+			int high = count;
+			//the last block starting at or before the offset with any bytes past it
+			while (low<high)
+			{
+				int mid = (low+high+1)>>>1;
+				if (rawOffsets[mid]<=rawOffset)
+				{
+					low = mid;
+				}
+				else
+				{
+					high = mid-1;
+				}
+			}
+			while (low<count && rawOffsets[low+1]==rawOffsets[low])
+			{
+				low++;
+			}
+			return low;
+		}
+	}
+	
+	/**
+	 * Returns the header of a container
+	 * 
+	 * @param shared The Encoder/Decoder whose canonical codes blocks can share, or null
+	 * @return the header
+	 * @throws IllegalStateException if the shared codes are not canonical
+	 * @throws IllegalArgumentException if the shared codes have a character other than a
+	 * byte or the escape, or a table longer than the reader takes
+	 */
+	static byte[] header(HuffmanEncoderDecoder shared)
+	{
+		byte[] table = shared==null ? new byte[0] : shared.getCodeLengths();
+		if (shared!=null)
+		{
+			for (long entry: shared.codes().getCodeLengths())
+			{
+				int c = (int)(entry>>>8);
+				if (c>0xFF && c!=DecodeTable.ESCAPE)
+				{
+					throw new IllegalArgumentException("shared codes have character "+c+", which is not a byte");
+				}
+			}
+			if (table.length>MAX_TABLE)
+			{
+				throw new IllegalArgumentException("shared code length table of "+table.length+" bytes is longer than "+MAX_TABLE);
+			}
+		}
+		ByteBuffer out = ByteBuffer.allocate(MAGIC.length+1+Varint.MAX_BYTES+table.length+4);
+		out.put(MAGIC);
+		out.put((byte)VERSION);
+		Varint.put(out, table.length);
+		out.put(table);
+		putChecksum(out, 0);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+	
+	/**
+	 * Reads and checks the header of a container
+	 * 
+	 * @param in The container, from its position, which is moved past the header
+	 * @return an Encoder/Decoder with the shared codes, or null if there are none
+	 * @throws IOException if the header is not valid
+	 */
+	static HuffmanEncoderDecoder readHeader(ByteBuffer in) throws IOException
+	{
+		int start = in.position();
+		try
+		{
+			for (byte b: MAGIC)
+			{
+				if (in.get()!=b)
+				{
+					throw new IOException("not a Huffman container");
+				}
+			}
+			int version = in.get() & 0xFF;
+			if (version!=VERSION)
+			{
+				throw new IOException("unsupported container version "+version);
+			}
+			byte[] table = new byte[readLength(in, MAX_TABLE)];
+			in.get(table);
+			checkChecksum(in, start);
+			return table.length==0 ? null : HuffmanEncoderDecoder.fromCodeLengths(table);
+		}
+		catch (BufferUnderflowException | IllegalArgumentException e)
+		{
+			throw new IOException("invalid container header", e);
+		}
+	}
+	
+	/**
+	 * Returns the most bytes writeBlock writes for a block
+	 * 
+	 * @param rawLength The number of bytes in the block
+	 * @return the size of the largest block
+	 */
+	static int maxBlockLength(int rawLength)
+	{
+		return 1+3*Varint.MAX_BYTES+MAX_TABLE+rawLength+4;
+	}
+	
+	/**
+	 * Writes a block, with whichever of its own table, the shared table or no encoding at
+	 * all makes it shortest
+	 * 
+	 * @param raw The bytes, from the position to the limit, at most MAX_BLOCK_SIZE; the
+	 * position is moved to the limit
+	 * @param shared An Encoder/Decoder with the shared codes, or null
+	 * @param out The buffer to write the block to, with room for maxBlockLength bytes
+	 */
+	static void writeBlock(ByteBuffer raw, HuffmanEncoderDecoder shared, ByteBuffer out)
+	{
+		int start = out.position();
+		int rawLength = raw.remaining();
+		Histogram counts = Histogram.ofBytes(raw);
+		
+		HuffmanEncoderDecoder own = new HuffmanEncoderDecoder.Builder().canonical(true).build(counts);
+		byte[] table = own.getCodeLengths();
+		long ownLength = payloadLength(own, counts);
+		long sharedLength = shared==null ? Long.MAX_VALUE : payloadLength(shared, counts);
+		
+		int kind = STORED;
+		long length = rawLength;
+		HuffmanEncoderDecoder codec = null;
+		if (ownLength+table.length+2<Math.min(length, sharedLength))
+		{
+			kind = OWN_TABLE;
+			length = ownLength;
+			codec = own;
+		}
+		else if (sharedLength<length)
+		{
+			kind = SHARED_TABLE;
+			length = sharedLength;
+			codec = shared;
+		}
+		
+		out.put((byte)kind);
+		Varint.put(out, rawLength);
+		Varint.put(out, length);
+		if (kind==OWN_TABLE)
+		{
+			Varint.put(out, table.length);
+			out.put(table);
+		}
+		if (kind==STORED)
+		{
+			out.put(raw);
+		}
+		else
+		{
+			HuffmanChannelEncoder encoder = new HuffmanChannelEncoder(codec);
+			encoder.encode(raw, out, true);
+			encoder.flush(out);
+		}
+		putChecksum(out, start);
+	}
+	
+	/**
+	 * Writes the marker after the last block
+	 * 
+	 * @param out The buffer to write to
+	 */
+	static void writeEnd(ByteBuffer out)
+	{
+		out.put((byte)END);
+	}
+	
+	/**
+	 * Reads the next block and checks its checksum, without decoding it
+	 * 
+	 * @param in The container, from its position, which is moved past the block
+	 * @return the block, or null after the last block
+	 * @throws IOException if the block is not valid
+	 */
+	static Block readBlock(ByteBuffer in) throws IOException
+	{
+		int start = in.position();
+		try
+		{
+			Block block = readBlockHeader(in);
+			if (block==null)
+			{
+				return null;
+			}
+			if (block.table!=null)
+			{
+				in.get(block.table);
+			}
+			int length = block.length-(in.position()-start)-4;
+			if (length>in.remaining())
+			{
+				throw new BufferUnderflowException();
+			}
+			block.payload = in.slice();
+			block.payload.limit(length);
+			in.position(in.position()+length);
+			checkChecksum(in, start);
+			return block;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("container ends inside a block", e);
+		}
+	}
+	
+	/**
+	 * Reads the start of the next block, up to its table, which is enough to tell how
+	 * long the block is without reading the rest of it
+	 * 
+	 * @param in The container, from its position, which is moved to the block's table,
+	 * or its payload if it has no table
+	 * @return the block with its kind, lengths and a table yet to be read, or null after
+	 * the last block
+	 * @throws IOException if the block is not valid
+	 * @throws BufferUnderflowException if in ends first
+	 */
+	static Block readBlockHeader(ByteBuffer in) throws IOException
+	{
+		int start = in.position();
+		Block block = new Block();
+		block.kind = in.get() & 0xFF;
+		if (block.kind==END)
+		{
+			return null;
+		}
+		if (block.kind>STORED)
+		{
+			throw new IOException("invalid block kind "+block.kind);
+		}
+		block.rawLength = readLength(in, MAX_BLOCK_SIZE);
+		//no block is worth encoding to more than its raw length
+		int length = readLength(in, MAX_BLOCK_SIZE);
+		if (block.kind==OWN_TABLE)
+		{
+			block.table = new byte[readLength(in, MAX_TABLE)];
+			length += block.table.length;
+		}
+		block.length = in.position()-start+length+4;
+		return block;
+	}
+	
+	/**
+	 * Decodes a block
+	 * 
+	 * @param block The block
+	 * @param shared An Encoder/Decoder with the shared codes, or null if there are none
+	 * @param out The buffer to write the bytes to, with room for the block's raw length
+	 * @throws IOException if the block does not decode to its raw length
+	 */
+	static void decode(Block block, HuffmanEncoderDecoder shared, ByteBuffer out) throws IOException
+	{
+		if (block.kind==STORED)
+		{
+			if (block.payload.remaining()!=block.rawLength)
+			{
+				throw new IOException("stored block of "+block.payload.remaining()+" bytes should hold "+block.rawLength);
+			}
+			out.put(block.payload.duplicate());
+			return;
+		}
+		
+		HuffmanEncoderDecoder codec = shared;
+		if (block.kind==OWN_TABLE)
+		{
+			try
+			{
+				codec = HuffmanEncoderDecoder.fromCodeLengths(block.table);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException("invalid block table", e);
+			}
+		}
+		else if (shared==null)
+		{
+			throw new IOException("block refers to a shared table the container does not have");
+		}
+		ByteBuffer dst = out.slice();
+		dst.limit(block.rawLength);
+		HuffmanChannelDecoder decoder = new HuffmanChannelDecoder(codec);
+		CoderResult result = decoder.decode(block.payload.duplicate(), dst, true);
+		if (!result.isUnderflow() || !decoder.isFinished() || dst.hasRemaining())
+		{
+			throw new IOException("block does not decode to its "+block.rawLength+" bytes");
+		}
+		out.position(out.position()+block.rawLength);
+	}
+	
+	/**
+	 * Returns the index of a container, to write after END
+	 * 
+	 * @param index The index
+	 * @return the bytes of the index, footer included
+	 */
+	static byte[] index(Index index)
+	{
+		ByteBuffer out = ByteBuffer.allocate(Varint.MAX_BYTES*(1+2*index.count)+4+FOOTER);
+		Varint.put(out, index.count);
+		for (int i=0; i<index.count; i++)
+		{
+			Varint.put(out, index.rawOffsets[i+1]-index.rawOffsets[i]);
+			Varint.put(out, index.offsets[i+1]-index.offsets[i]);
+		}
+		putChecksum(out, 0);
+		out.putInt(out.position());
+		out.put(INDEX_MAGIC);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+	
+	/**
+	 * Returns the length of the index from the footer at the end of a container
+	 * 
+	 * @param footer The last FOOTER bytes of the container, from its position
+	 * @return the number of bytes of the index before the footer, or -1 if the container
+	 * has no index
+	 */
+	static int indexLength(ByteBuffer footer)
+	{
+		int length = footer.getInt();
+		for (byte b: INDEX_MAGIC)
+		{
+			if (footer.get()!=b)
+			{
+				return -1;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * Reads and checks an index
+	 * 
+	 * @param in The index, from its position to the footer
+	 * @param start The offset of the first block in the container
+	 * @return the index
+	 * @throws IOException if the index is not valid
+	 */
+	static Index readIndex(ByteBuffer in, long start) throws IOException
+	{
+		int begin = in.position();
+		try
+		{
+			int count = readLength(in, Integer.MAX_VALUE);
+			Index index = new Index(start);
+			for (int i=0; i<count; i++)
+			{
+				index.add(readLength(in, MAX_BLOCK_SIZE), readLength(in, maxBlockLength(MAX_BLOCK_SIZE)));
+			}
+			checkChecksum(in, begin);
+			return index;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("invalid container index", e);
+		}
+	}
+	
+	/**
+	 * Returns the length of the payload of some bytes encoded by a codec, as
+	 * HuffmanChannelEncoder writes it
+	 * 
+	 * @param codec The Encoder/Decoder
+	 * @param counts The counts of the bytes
+	 * @return the number of bytes, or Long.MAX_VALUE if some bytes have no encoding
+	 */
+	private static long payloadLength(HuffmanEncoderDecoder codec, Histogram counts)
+	{
+		HuffmanEncoderDecoder.Codes codes = codec.codes();
+		long bits = 0;
+		for (int c: counts.symbols())
+		{
+			long packed = codes.packedCodes.get(c);
+			if (packed==0 && codes.escapeCode==0)
+			{
+				return Long.MAX_VALUE;
+			}
+			int length = packed!=0 ? (int)(packed & 0xFF) : (int)(codes.escapeCode & 0xFF)+DecodeTable.LITERAL_BITS;
+			bits += counts.get(c)*length;
+		}
+		return (bits+7)/8+1;
+	}
+	
+	/**
+	 * Reads a Varint that is a length of at most max
+	 */
+	static int readLength(ByteBuffer in, int max) throws IOException
+	{
+		long number = Varint.get(in);
+		if (number<0 || number>max)
+		{
+			throw new IOException("length out of range");
+		}
+		return (int)number;
+	}
+	
+	/**
+	 * Writes the CRC32C of what has been written since start
+	 */
+	private static void putChecksum(ByteBuffer out, int start)
+	{
+		int checksum = checksum(out, start);
+		for (int shift=24; shift>=0; shift-=8)
+		{
+			out.put((byte)(checksum>>>shift));
+		}
+	}
+	
+	/**
+	 * Reads a checksum and checks it against the CRC32C of what has been read since start
+	 */
+	private static void checkChecksum(ByteBuffer in, int start) throws IOException
+	{
+		int checksum = checksum(in, start);
+		int stored = 0;
+		for (int i=0; i<4; i++)
+		{
+			stored = stored<<8 | in.get() & 0xFF;
+		}
+		if (stored!=checksum)
+		{
+			throw new IOException("checksum mismatch at byte "+start);
+		}
+	}
+	
+	/**
+	 * Returns the CRC32C of a buffer from start up to its position
+	 */
+	private static int checksum(ByteBuffer buffer, int start)
+	{
+		ByteBuffer covered = buffer.duplicate();
+		covered.limit(buffer.position()).position(start);
+		CRC32C crc = new CRC32C();
+		crc.update(covered);
+		return (int)crc.getValue();
+	}
+}
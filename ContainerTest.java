@@ -0,0 +1,190 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that whatever HuffmanContainerWriter accepts, HuffmanContainerReader reads back.
+ * Run with assertions enabled or not; a failure throws an AssertionError either way
+ * 
+ * @author Jason Malia
+ */
+
+class ContainerTest {
+	
+	public static void main(String args[]) throws IOException
+	{
+		sharedByteCodes();
+		sharedCodesTooWide();
+		lengthsOutOfRange();
+		seekableReads(true);
+		seekableReads(false);
+		System.out.println("ContainerTest passed");
+	}
+	
+	/**
+	 * Blocks written with codes shared by the container read back the same
+	 */
+	private static void sharedByteCodes() throws IOException
+	{
+		Random random = new Random(1);
+		byte[] data = new byte[10000];
+		for (int i=0; i<data.length; i++)
+		{
+			data[i] = (byte)('a'+Long.numberOfTrailingZeros(random.nextLong()|1L<<20));
+		}
+		HuffmanEncoderDecoder shared = new HuffmanEncoderDecoder.Builder().canonical(true).escape(true).build(Histogram.ofBytes(data, 0, data.length));
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (HuffmanContainerWriter writer = new HuffmanContainerWriter(out, shared))
+		{
+			writer.writeBlock(data, 0, data.length);
+			//a byte the shared codes only have through the escape
+			writer.writeBlock(new byte[]{(byte)0xFF, 'a'}, 0, 2);
+		}
+		try (HuffmanContainerReader reader = new HuffmanContainerReader(new ByteArrayInputStream(out.toByteArray())))
+		{
+			check(Arrays.equals(reader.readBlock(), data), "first block read back different");
+			check(Arrays.equals(reader.readBlock(), new byte[]{(byte)0xFF, 'a'}), "second block read back different");
+			check(reader.readBlock()==null, "a block after the last");
+		}
+	}
+	
+	/**
+	 * Codes with characters other than bytes have a table the reader does not take, so
+	 * the writer does not take them either
+	 */
+	private static void sharedCodesTooWide() throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		for (char c=0x100; c<0x100+1000; c++)
+		{
+			text.append(c);
+		}
+		HuffmanEncoderDecoder shared = new HuffmanEncoderDecoder.Builder().canonical(true).build(text.toString());
+		try
+		{
+			new HuffmanContainerWriter(new ByteArrayOutputStream(), shared).close();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;
+		}
+		throw new AssertionError("shared codes of 1000 characters past the bytes were not rejected");
+	}
+	
+	/**
+	 * Reads ranges of a container with blocks of 1000, 1, 0, 5000 and 3000 bytes at
+	 * fixed offsets: inside a block, across one boundary, the 1-byte block, across the
+	 * empty block and several more, and at the end. Without an index the reader finds
+	 * the blocks by scanning their headers
+	 */
+	private static void seekableReads(boolean indexed) throws IOException
+	{
+		Random random = new Random(3);
+		byte[] data = new byte[9001];
+		for (int i=0; i<data.length; i++)
+		{
+			data[i] = (byte)('a'+Long.numberOfTrailingZeros(random.nextLong()|1L<<20));
+		}
+		int[] blocks = {1000, 1, 0, 5000, 3000};
+		Path file = Files.createTempFile("seekable", ".huf");
+		try
+		{
+			try (HuffmanContainerWriter writer = new HuffmanContainerWriter(Files.newOutputStream(file), null, indexed))
+			{
+				int off = 0;
+				for (int length: blocks)
+				{
+					writer.writeBlock(data, off, length);
+					off += length;
+				}
+			}
+			String kind = indexed ? "indexed" : "scanned";
+			try (SeekableHuffmanReader reader = new SeekableHuffmanReader(file))
+			{
+				check(reader.size()==data.length, kind+" size "+reader.size()+" rather than "+data.length);
+				int[][] ranges = {{0, 10}, {995, 10}, {1000, 1}, {999, 3}, {1, 9000}, {8995, 6}, {4000, 50}};
+				for (int[] range: ranges)
+				{
+					byte[] b = new byte[range[1]+2];
+					int read = reader.read(range[0], b, 1, range[1]);
+					check(read==range[1], kind+" read of "+range[1]+" bytes at "+range[0]+" gave "+read);
+					check(Arrays.equals(Arrays.copyOfRange(b, 1, 1+read), Arrays.copyOfRange(data, range[0], range[0]+read)), kind+" read at "+range[0]+" gave different bytes");
+				}
+				byte[] b = new byte[10];
+				check(reader.read(data.length-4, b, 0, 10)==4, kind+" read past the end was not cut short");
+				check(reader.read(data.length, b, 0, 10)==-1, kind+" read at the end did not return -1");
+			}
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+	
+	/**
+	 * A table or block length past what the format allows is rejected as soon as it is
+	 * read, before the reader buffers that many bytes to check the CRC
+	 */
+	private static void lengthsOutOfRange() throws IOException
+	{
+		byte[] header = Container.header(null);
+		//a stored block of 10 bytes claiming 2^27 bytes of payload
+		byte[] block = {Container.STORED, 10, (byte)0x80, (byte)0x80, (byte)0x80, 0x40};
+		expectRejected(header, block, "a block length of 2^27");
+		
+		//an own table of 2^14 bytes
+		block = new byte[]{Container.OWN_TABLE, 10, 10, (byte)0x80, (byte)0x80, 0x01};
+		expectRejected(header, block, "a table length of 2^14");
+		
+		//a shared table of 2^14 bytes in the header
+		byte[] start = Arrays.copyOf(header, Container.MAGIC.length+4);
+		start[Container.MAGIC.length+1] = (byte)0x80;
+		start[Container.MAGIC.length+2] = (byte)0x80;
+		start[Container.MAGIC.length+3] = 0x01;
+		expectRejected(start, new byte[0], "a shared table length of 2^14");
+	}
+	
+	/**
+	 * Reads a container that starts with some bytes and goes on with endless zeros,
+	 * expecting the reader to give up within the bytes given
+	 */
+	private static void expectRejected(byte[] header, byte[] block, String what)
+	{
+		byte[] start = Arrays.copyOf(header, header.length+block.length);
+		System.arraycopy(block, 0, start, header.length, block.length);
+		int[] read = new int[1];
+		InputStream in = new InputStream()
+		{
+			@Override
+			public int read()
+			{
+				int i = read[0]++;
+				return i<start.length ? start[i] & 0xFF : 0;
+			}
+		};
+		try (HuffmanContainerReader reader = new HuffmanContainerReader(in))
+		{
+			reader.readBlock();
+		}
+		catch (IOException e)
+		{
+			check(read[0]<=start.length, what+" was rejected only after reading on");
+			return;
+		}
+		throw new AssertionError(what+" was not rejected");
+	}
+	
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,428 @@
+import java.util.Arrays;
+
+/**
+ * Represent a lookup table decoder for packed Huffman codes. The next few bits of the
+ * input index a primary table whose entry holds the character and its code length;
+ * codes longer than the primary table continue in secondary tables, one more level
+ * for every SECONDARY_BITS bits.
+ * 
+ * An entry is one of
+ *   0                                        no code starts with these bits
+ *   symbol<<8 | bits used at this level      a complete code
+ *   LINK | secondary table offset<<8 | bits  a code continuing in a secondary table
+ * 
+ * A multi-symbol table can sit in front of it, whose entry for the same primary bits
+ * holds every code that fits in them completely, up to MAX_SYMBOLS of them:
+ *   symbol 3<<48 | symbol 2<<32 | symbol 1<<16 | symbol count<<8 | bits used
+ * or 0 when not even the first code fits, which falls back to the single-symbol lookup.
+ * It only holds symbols in the Basic Multilingual Plane.
+ * 
+ * Symbols are Unicode code points. The escape symbol is followed by LITERAL_BITS bits
+ * holding the code point itself.
+ * 
+ * @author Jason Malia
+ */
+
+class DecodeTable {
+	
+	static final int PRIMARY_BITS = 10;
+	static final int SECONDARY_BITS = 6;
+	static final int MAX_SYMBOLS = 3;
+	//the escape symbol comes after every Unicode code point
+	static final int ESCAPE = Character.MAX_CODE_POINT+1;
+	static final int LITERAL_BITS = 21;
+	private static final int LINK = 0x80000000;
+	
+	private int[] entries;
+	private int size;
+	private final int primaryBits;
+	//the multi-symbol entries for each primary index, or null when not in use
+	private long[] multi;
+	
+	/**
+	 * Constructs the table
+	 * 
+	 * @param symbols The symbols being decoded
+	 * @param codes The packed code of each symbol: the code bits shifted left by 8 and
+	 * or'ed with the code length
+	 * @param multiSymbol Whether to build the multi-symbol table as well
+	 */
+
+	DecodeTable(int[] symbols, long[] codes, boolean multiSymbol)
+	{
+		int n = symbols.length;
+		int maxLength = 0;
+		//the codes left aligned in a long, so sorting them groups shared prefixes together
+		long[] left = new long[n];
+		
+		for (int i=0; i<n; i++)
+		{
+			int length = (int)(codes[i] & 0xFF);
+			maxLength = Math.max(maxLength, length);
+			left[i] = (codes[i]>>>8)<<(64-length);
+		}
+		//flipping the top bit makes the signed order of the codes their unsigned order, and
+		//no code is a prefix of another, so each one is found at its own position
+		long[] keys = new long[n];
+		for (int i=0; i<n; i++)
+		{
+			keys[i] = left[i]^Long.MIN_VALUE;
+		}
+		Arrays.sort(keys);
+		
+		long[] aligned = new long[n];
+		int[] lengths = new int[n];
+		int[] sorted = new int[n];
+		for (int i=0; i<n; i++)
+		{
+			int at = Arrays.binarySearch(keys, left[i]^Long.MIN_VALUE);
+			aligned[at] = left[i];
+			lengths[at] = (int)(codes[i] & 0xFF);
+			sorted[at] = symbols[i];
+		}
+		
+		primaryBits = Math.max(1, Math.min(PRIMARY_BITS, maxLength));
+		entries = new int[1<<primaryBits];
+		fill(aligned, lengths, sorted, 0, n, 0, primaryBits);
+		if (multiSymbol)
+		{
+			fillMulti();
+		}
+	}
+	
+	/**
+	 * Fills in the multi-symbol table by decoding each possible value of the primary bits
+	 * with the primary table, as long as the next code ends within them
+	 */
+	private void fillMulti()
+	{
+		multi = new long[1<<primaryBits];
+		int mask = (1<<primaryBits)-1;
+		
+		for (int window=0; window<multi.length; window++)
+		{
+			long entry = 0;
+			int used = 0;
+			int count = 0;
+			while (count<MAX_SYMBOLS)
+			{
+				//the bits past the window are filled with 0's, so the code found only counts
+				//if it ends before them
+				int next = entries[(window<<used) & mask];
+				int length = next & 0xFF;
+				//supplementary characters do not fit in 16 bits and the escape needs its
+				//literal, so they are left to the single-symbol lookup
+				if (next<=0 || length>primaryBits-used || next>>>8>Character.MAX_VALUE)
+				{
+					break;
+				}
+				entry |= (long)(next>>>8)<<(16*(count+1));
+				used += length;
+				count++;
+			}
+			multi[window] = count==0 ? 0 : entry | count<<8 | used;
+		}
+	}
+	
+	/**
+	 * Fills in a table for the codes between from and to, which all share the same
+	 * first consumed bits, and any secondary tables they need
+	 * 
+	 * @return the offset of the table
+	 */
+	private int fill(long[] aligned, int[] lengths, int[] symbols, int from, int to, int consumed, int bits)
+	{
+		int offset = size;
+		size += 1<<bits;
+		if (size>entries.length)
+		{
+			entries = Arrays.copyOf(entries, Math.max(size, entries.length*2));
+		}
+		
+		int i = from;
+		while (i<to)
+		{
+			int index = (int)((aligned[i]<<consumed)>>>(64-bits));
+			int remaining = lengths[i]-consumed;
+			
+			//the code ends in this table so every entry starting with it decodes to it
+			if (remaining<=bits)
+			{
+				int entry = symbols[i]<<8 | remaining;
+				Arrays.fill(entries, offset+index, offset+index+(1<<(bits-remaining)), entry);
+				i++;
+			}
+			//otherwise link to a secondary table for all the codes sharing these bits
+			else
+			{
+				int j = i;
+				int longest = 0;
+				while (j<to && (int)((aligned[j]<<consumed)>>>(64-bits))==index)
+				{
+					longest = Math.max(longest, lengths[j]-consumed-bits);
+					j++;
+				}
+				int subBits = Math.min(longest, SECONDARY_BITS);
+				int subOffset = fill(aligned, lengths, symbols, i, j, consumed+bits, subBits);
+				entries[offset+index] = LINK | subOffset<<8 | subBits;
+				i = j;
+			}
+		}
+		return offset;
+	}
+	
+	/**
+	 * Decodes packed bits. A partial code at the end of the bits is dropped
+	 * 
+	 * @param in The reader of the bits
+	 * @param bitLength The number of bits to decode
+	 * @return the decoded symbols
+	 * @throws IllegalArgumentException if the bits hold something that is not a code, or
+	 * an escape followed by something that is not a code point
+	 */
+	String decode(BitReader in, long bitLength)
+	{
+		char[] out = new char[(int)Math.min(Integer.MAX_VALUE-8, bitLength/4+16)];
+		int n = 0;
+		long remaining = bitLength;
+		
+		while (remaining>0)
+		{
+			in.refill();
+			if (n+MAX_SYMBOLS>out.length)
+			{
+				out = Arrays.copyOf(out, out.length*2);
+			}
+			
+			//take as many symbols as the multi-symbol entry holds when it is there and
+			//its codes are all in the input; all three slots are copied and the ones
+			//past the symbol count are written over later
+			if (multi!=null)
+			{
+				long many = multi[(int)in.peekBits(primaryBits)];
+				int bits = (int)(many & 0xFF);
+				if (bits!=0 && bits<=remaining)
+				{
+					out[n] = (char)(many>>>16);
+					out[n+1] = (char)(many>>>32);
+					out[n+2] = (char)(many>>>48);
+					n += (int)(many>>>8 & 0xFF);
+					in.skipBits(bits);
+					remaining -= bits;
+					continue;
+				}
+			}
+			
+			int decoded = decodeSymbol(in);
+			int symbol = decoded>>>8;
+			remaining -= decoded & 0xFF;
+			if (symbol==ESCAPE)
+			{
+				symbol = literal((int)in.readBits(LITERAL_BITS));
+				remaining -= LITERAL_BITS;
+			}
+			if (remaining<0)
+			{
+				break;
+			}
+			if (symbol>Character.MAX_VALUE)
+			{
+				out[n++] = Character.highSurrogate(symbol);
+				out[n++] = Character.lowSurrogate(symbol);
+			}
+			else
+			{
+				out[n++] = (char)symbol;
+			}
+		}
+		return new String(out, 0, n);
+	}
+	
+	/**
+	 * Decodes one symbol. The reader must have been refilled since the last code
+	 * 
+	 * @param in The reader of the bits
+	 * @return the symbol shifted left by 8 and or'ed with the length of its code
+	 * @throws IllegalArgumentException if the bits are not a code
+	 */
+	int decodeSymbol(BitReader in)
+	{
+		int decoded = lookup(in.peekBits(56)<<8);
+		in.skipBits(decoded & 0xFF);
+		return decoded;
+	}
+	
+	/**
+	 * Looks up the code at the start of some bits, going through as many secondary
+	 * tables as it needs
+	 * 
+	 * @param bits The next 56 or more bits of the input, left aligned
+	 * @return the symbol shifted left by 8 and or'ed with the length of its code
+	 * @throws IllegalArgumentException if the bits do not start with a code
+	 */
+	int lookup(long bits)
+	{
+		int width = primaryBits;
+		int used = 0;
+		int entry = entries[(int)(bits>>>(64-width))];
+		while (entry<0)
+		{
+			used += width;
+			width = entry & 0xFF;
+			entry = entries[((entry>>>8) & 0x7FFFFF)+(int)((bits<<used)>>>(64-width))];
+		}
+		
+		int length = entry & 0xFF;
+		if (length==0)
+		{
+			throw new IllegalArgumentException("invalid code");
+		}
+		return (entry & ~0xFF) | (used+length);
+	}
+	
+	/**
+	 * Decodes four streams of packed bits into four runs of symbols. Each stream keeps its
+	 * bits in local variables and refills them without a branch every symbol, so the
+	 * lookups of the four streams do not wait on each other. Codes longer than the
+	 * primary table and escapes take the slower decodeStream for all four streams
+	 * 
+	 * @param data The bytes holding the streams
+	 * @param offsets Where each stream starts, followed by where the last one ends
+	 * @param out Where the runs of code points go, the length of all four together
+	 * @param run The length of every run but the last
+	 * @throws IllegalArgumentException if a stream holds something that is not a code or
+	 * ends before its run does
+	 */
+	void decodeInterleaved(byte[] data, int[] offsets, int[] out, int run)
+	{
+		long bits0 = 0, bits1 = 0, bits2 = 0, bits3 = 0;
+		int count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+		int pos0 = offsets[0], pos1 = offsets[1], pos2 = offsets[2], pos3 = offsets[3];
+		//every run but the last is full, so the last one says how long all four can go
+		int last = Math.max(0, out.length-3*run);
+		
+		for (int i=0; i<last; i++)
+		{
+			bits0 |= BitReader.load(data, pos0)>>>count0;
+			pos0 += (63-count0)>>>3;
+			count0 |= 56;
+			bits1 |= BitReader.load(data, pos1)>>>count1;
+			pos1 += (63-count1)>>>3;
+			count1 |= 56;
+			bits2 |= BitReader.load(data, pos2)>>>count2;
+			pos2 += (63-count2)>>>3;
+			count2 |= 56;
+			bits3 |= BitReader.load(data, pos3)>>>count3;
+			pos3 += (63-count3)>>>3;
+			count3 |= 56;
+			
+			int entry0 = entries[(int)(bits0>>>(64-primaryBits))];
+			int entry1 = entries[(int)(bits1>>>(64-primaryBits))];
+			int entry2 = entries[(int)(bits2>>>(64-primaryBits))];
+			int entry3 = entries[(int)(bits3>>>(64-primaryBits))];
+			//links to secondary tables and invalid codes, the entries up to 0, supplementary
+			//characters and escapes, the symbols above 0xFFFF, go the long way
+			if ((((entry0-1) | (entry1-1) | (entry2-1) | (entry3-1))>>>24)!=0)
+			{
+				long[] bits = {bits0, bits1, bits2, bits3};
+				int[] count = {count0, count1, count2, count3};
+				int[] pos = {pos0, pos1, pos2, pos3};
+				for (int s=0; s<4; s++)
+				{
+					out[s*run+i] = decodeStream(data, bits, count, pos, s);
+				}
+				bits0 = bits[0];
+				bits1 = bits[1];
+				bits2 = bits[2];
+				bits3 = bits[3];
+				count0 = count[0];
+				count1 = count[1];
+				count2 = count[2];
+				count3 = count[3];
+				pos0 = pos[0];
+				pos1 = pos[1];
+				pos2 = pos[2];
+				pos3 = pos[3];
+				continue;
+			}
+			
+			out[i] = entry0>>>8;
+			out[run+i] = entry1>>>8;
+			out[2*run+i] = entry2>>>8;
+			out[3*run+i] = entry3>>>8;
+			bits0 <<= entry0 & 0xFF;
+			count0 -= entry0 & 0xFF;
+			bits1 <<= entry1 & 0xFF;
+			count1 -= entry1 & 0xFF;
+			bits2 <<= entry2 & 0xFF;
+			count2 -= entry2 & 0xFF;
+			bits3 <<= entry3 & 0xFF;
+			count3 -= entry3 & 0xFF;
+		}
+		
+		//finish the first three runs, which the last one may have been shorter than
+		long[] bits = {bits0, bits1, bits2, bits3};
+		int[] count = {count0, count1, count2, count3};
+		int[] pos = {pos0, pos1, pos2, pos3};
+		for (int s=0; s<4; s++)
+		{
+			int end = Math.min(out.length, (s+1)*run);
+			for (int i=s*run+last; i<end; i++)
+			{
+				out[i] = decodeStream(data, bits, count, pos, s);
+			}
+			if ((long)pos[s]*8-count[s]>offsets[s+1]*8L)
+			{
+				throw new IllegalArgumentException("stream "+s+" ends before its run does");
+			}
+		}
+	}
+	
+	/**
+	 * Decodes one symbol from one of the streams of decodeInterleaved
+	 * 
+	 * @param data The bytes holding the streams
+	 * @param bits The bits of each stream, left aligned
+	 * @param count The number of bits of each stream
+	 * @param pos The position of each stream in data
+	 * @param s The stream to decode from
+	 * @return the symbol
+	 */
+	private int decodeStream(byte[] data, long[] bits, int[] count, int[] pos, int s)
+	{
+		bits[s] |= BitReader.load(data, pos[s])>>>count[s];
+		pos[s] += (63-count[s])>>>3;
+		count[s] |= 56;
+		int entry = lookup(bits[s]);
+		bits[s] <<= entry & 0xFF;
+		count[s] -= entry & 0xFF;
+		
+		if (entry>>>8==ESCAPE)
+		{
+			bits[s] |= BitReader.load(data, pos[s])>>>count[s];
+			pos[s] += (63-count[s])>>>3;
+			count[s] |= 56;
+			int literal = (int)(bits[s]>>>(64-LITERAL_BITS));
+			bits[s] <<= LITERAL_BITS;
+			count[s] -= LITERAL_BITS;
+			return literal(literal);
+		}
+		return entry>>>8;
+	}
+	
+	/**
+	 * Checks the literal after an escape
+	 * 
+	 * @param literal The LITERAL_BITS bits after the escape
+	 * @return the literal
+	 * @throws IllegalArgumentException if the literal is not a code point
+	 */
+	static int literal(int literal)
+	{
+		if (literal>Character.MAX_CODE_POINT)
+		{
+			throw new IllegalArgumentException("invalid code point after escape");
+		}
+		return literal;
+	}
+}
@@ -0,0 +1,847 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Represent the number of times each symbol, a Unicode code point, appears in some
+ * frequency data. Symbols in the Basic Multilingual Plane are counted in a long array
+ * that grows up to the highest one seen; supplementary characters, which are rare,
+ * are counted in a map. Counts that would overflow a long stay at Long.MAX_VALUE, and
+ * scaled brings a histogram of any size back to a fixed total.
+ * 
+ * Large inputs are split into chunks that are counted on a ForkJoinPool, each into its
+ * own histogram, and merged as the chunks are joined.
+ * 
+ * Readers are counted a buffer at a time, and sampled either by reading chunks spread
+ * evenly over a file or by keeping a reservoir of chunks of the stream, so the memory
+ * used never depends on the length of the data.
+ * 
+ * Bytes are counted in BANKS interleaved banks of counts that are summed at the end.
+ * Consecutive bytes go to different banks, so a run of the same byte does not make
+ * every increment wait for the store of the one before it.
+ * 
+ * Histograms counted apart, such as by the workers of a sharded training run, merge
+ * into the histogram of all their data, and the codes for it can be built with
+ * HuffmanEncoderDecoder.Builder.build(Histogram). A histogram is shipped as the counts
+ * of the symbols that appear, in symbol order, each written as the gap from the symbol
+ * before it and its count, both Varints, the way getCodeLengths writes code lengths;
+ * serialization writes the same.
+ * 
+ * @author Jason Malia
+ */
+
+public class Histogram implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	//inputs longer than this are split between the threads of the pool
+	static final int PARALLEL_THRESHOLD = 1<<20;
+	private static final int INITIAL_SIZE = 0x100;
+	static final int BANKS = 4;
+	private static final int BUFFER_SIZE = 8192;
+	
+	private transient long[] counts;
+	private transient Map<Integer, Long> supplementary;
+	
+	/**
+	 * Constructs an empty histogram
+	 */
+
+	public Histogram()
+	{
+		counts = new long[INITIAL_SIZE];
+		supplementary = new HashMap<Integer, Long>();
+	}
+	
+	/**
+	 * Counts the code points of some frequency data, in parallel if it is long enough.
+	 * A lone surrogate counts as a symbol of its own
+	 * 
+	 * @param data The frequency data
+	 * @return the histogram of the data
+	 */
+	public static Histogram of(CharSequence data)
+	{
+		if (data.length()<=PARALLEL_THRESHOLD)
+		{
+			Histogram histogram = new Histogram();
+			histogram.count(data, 0, data.length());
+			return histogram;
+		}
+		return ForkJoinPool.commonPool().invoke(new Counter(data, 0, data.length()));
+	}
+	
+	/**
+	 * Counts evenly spaced chunks of some frequency data rather than all of it. The
+	 * chunks are kept in two histograms, the even numbered ones and the odd numbered
+	 * ones, so one half can be checked against the other
+	 * 
+	 * @param data The frequency data, longer than all the chunks together
+	 * @param chunks The number of chunks
+	 * @param chunkLength The number of chars in each chunk
+	 * @return the histograms of the even and of the odd numbered chunks
+	 */
+	static Histogram[] sample(CharSequence data, int chunks, int chunkLength)
+	{
+		Histogram[] halves = {new Histogram(), new Histogram()};
+		int length = data.length();
+		
+		for (int k=0; k<chunks; k++)
+		{
+			int from = (int)((long)k*length/chunks);
+			int to = from+chunkLength;
+			//keep surrogate pairs whole at both ends
+			if (from>0 && Character.isLowSurrogate(data.charAt(from)) && Character.isHighSurrogate(data.charAt(from-1)))
+			{
+				from++;
+			}
+			if (to<length && Character.isLowSurrogate(data.charAt(to)) && Character.isHighSurrogate(data.charAt(to-1)))
+			{
+				to++;
+			}
+			halves[k & 1].count(data, from, to);
+		}
+		return halves;
+	}
+	
+	/**
+	 * Counts the code points read from a reader, a buffer at a time. The reader is read
+	 * to the end but not closed
+	 * 
+	 * @param in The reader of the frequency data
+	 * @return the histogram of the data
+	 * @throws IOException if the reader fails
+	 */
+	static Histogram of(Reader in) throws IOException
+	{
+		Histogram histogram = new Histogram();
+		char[] buffer = new char[BUFFER_SIZE];
+		CharBuffer chars = CharBuffer.wrap(buffer);
+		int n = 0;
+		
+		for (int read; (read = in.read(buffer, n, buffer.length-n))!=-1; )
+		{
+			n += read;
+			//a high surrogate at the end of the buffer waits for the rest of its pair
+			int end = Character.isHighSurrogate(buffer[n-1]) ? n-1 : n;
+			histogram.count(chars, 0, end);
+			System.arraycopy(buffer, end, buffer, 0, n-end);
+			n -= end;
+		}
+		histogram.count(chars, 0, n);
+		return histogram;
+	}
+	
+	/**
+	 * Samples chunks of the code points read from a reader. Every chunk of the stream is
+	 * as likely to be kept as any other, by reservoir sampling, with a fixed seed so the
+	 * same data always gives the same sample. The reader is read to the end but not closed
+	 * 
+	 * @param in The reader of the frequency data
+	 * @param chunks The number of chunks to keep
+	 * @param chunkLength The number of chars in each chunk
+	 * @param length Where the number of chars read goes
+	 * @return the histograms of the even and of the odd numbered chunks kept, or just the
+	 * histogram of every char if the chunks hold them all
+	 * @throws IOException if the reader fails
+	 */
+	static Histogram[] sample(Reader in, int chunks, int chunkLength, long[] length) throws IOException
+	{
+		Reservoir reservoir = new Reservoir(chunks, chunkLength);
+		char[] buffer = new char[BUFFER_SIZE];
+		CharBuffer chars = CharBuffer.wrap(buffer);
+		
+		for (int read; (read = in.read(buffer))!=-1; )
+		{
+			reservoir.add(chars, 0, read);
+		}
+		length[0] = reservoir.length;
+		return reservoir.finish();
+	}
+	
+	/**
+	 * Samples chunks of the code points of a sequence of texts, as sample(Reader) does
+	 * 
+	 * @param texts The frequency data
+	 * @param chunks The number of chunks to keep
+	 * @param chunkLength The number of chars in each chunk
+	 * @param length Where the number of chars in the texts goes
+	 * @return the histograms of the even and of the odd numbered chunks kept, or just the
+	 * histogram of every char if the chunks hold them all
+	 */
+	static Histogram[] sample(Iterable<? extends CharSequence> texts, int chunks, int chunkLength, long[] length)
+	{
+		Reservoir reservoir = new Reservoir(chunks, chunkLength);
+		for (CharSequence text: texts)
+		{
+			reservoir.add(text, 0, text.length());
+		}
+		length[0] = reservoir.length;
+		return reservoir.finish();
+	}
+	
+	/**
+	 * Samples chunks spread evenly over a file, reading only the chunks. A chunk can start
+	 * in the middle of a character, so this takes UTF-8, which can find the start of the
+	 * next one, or a charset of one byte per character
+	 * 
+	 * @param channel The file of frequency data
+	 * @param charset The charset of the file
+	 * @param chunks The number of chunks
+	 * @param chunkLength The number of chars in each chunk
+	 * @param length Where the estimated number of chars in the file goes
+	 * @return the histograms of the even and of the odd numbered chunks, or null if the
+	 * file is no longer than the chunks or the charset cannot be sampled
+	 * @throws IOException if reading the file fails
+	 */
+	static Histogram[] sample(FileChannel channel, Charset charset, int chunks, int chunkLength, long[] length) throws IOException
+	{
+		boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+		if (!utf8 && !(charset.canEncode() && charset.newEncoder().maxBytesPerChar()==1))
+		{
+			return null;
+		}
+		//every char takes at most 3 bytes of UTF-8, the 4 of a surrogate pair making two
+		int chunkBytes = utf8 ? 3*chunkLength+3 : chunkLength;
+		long size = channel.size();
+		if ((long)chunks*chunkBytes>=size)
+		{
+			return null;
+		}
+		
+		Histogram[] halves = {new Histogram(), new Histogram()};
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocate(chunkBytes);
+		CharBuffer chars = CharBuffer.allocate(chunkLength);
+		long bytesRead = 0;
+		long charsRead = 0;
+		
+		for (int k=0; k<chunks; k++)
+		{
+			bytes.clear();
+			long position = (long)k*size/chunks;
+			while (bytes.hasRemaining() && channel.read(bytes, position+bytes.position())>0)
+			{
+			}
+			bytes.flip();
+			//skip the rest of a character the chunk starts in
+			while (utf8 && k>0 && bytes.hasRemaining() && (bytes.get(bytes.position()) & 0xC0)==0x80)
+			{
+				bytes.get();
+			}
+			
+			int start = bytes.position();
+			//the decoder stops when the chunk is full, before a surrogate pair that does not fit
+			decoder.reset();
+			chars.clear();
+			decoder.decode(bytes, chars, false);
+			chars.flip();
+			halves[k & 1].count(chars, 0, chars.length());
+			bytesRead += bytes.position()-start;
+			charsRead += chars.length();
+		}
+		length[0] = bytesRead==0 ? 0 : Math.round((double)size*charsRead/bytesRead);
+		return halves;
+	}
+	
+	/**
+	 * Counts some bytes, each as the symbol with the same value from 0 to 255
+	 * 
+	 * @param data The bytes
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes
+	 * @return the histogram of the bytes
+	 */
+	public static Histogram ofBytes(byte[] data, int offset, int length)
+	{
+		int[] banks = new int[BANKS*0x100];
+		int end = offset+length;
+		int i = offset;
+		
+		for (; i<end-(BANKS-1); i+=BANKS)
+		{
+			banks[data[i] & 0xFF]++;
+			banks[0x100 | (data[i+1] & 0xFF)]++;
+			banks[0x200 | (data[i+2] & 0xFF)]++;
+			banks[0x300 | (data[i+3] & 0xFF)]++;
+		}
+		for (; i<end; i++)
+		{
+			banks[data[i] & 0xFF]++;
+		}
+		return ofBanks(banks);
+	}
+	
+	/**
+	 * Counts the bytes of a buffer from its position to its limit, each as the symbol with
+	 * the same value from 0 to 255, such as those of a mapped file. The buffer itself is
+	 * left as it is
+	 * 
+	 * @param data The bytes
+	 * @return the histogram of the bytes
+	 */
+	public static Histogram ofBytes(ByteBuffer data)
+	{
+		if (data.hasArray())
+		{
+			return ofBytes(data.array(), data.arrayOffset()+data.position(), data.remaining());
+		}
+		int[] banks = new int[BANKS*0x100];
+		int end = data.limit();
+		int i = data.position();
+		
+		for (; i<end-(BANKS-1); i+=BANKS)
+		{
+			banks[data.get(i) & 0xFF]++;
+			banks[0x100 | (data.get(i+1) & 0xFF)]++;
+			banks[0x200 | (data.get(i+2) & 0xFF)]++;
+			banks[0x300 | (data.get(i+3) & 0xFF)]++;
+		}
+		for (; i<end; i++)
+		{
+			banks[data.get(i) & 0xFF]++;
+		}
+		return ofBanks(banks);
+	}
+	
+	/**
+	 * Sums the banks of byte counts into a histogram
+	 */
+	private static Histogram ofBanks(int[] banks)
+	{
+		Histogram histogram = new Histogram();
+		for (int c=0; c<0x100; c++)
+		{
+			histogram.counts[c] = (long)banks[c]+banks[0x100 | c]+banks[0x200 | c]+banks[0x300 | c];
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Adds the code points between two indexes of some data. The range must not split
+	 * a surrogate pair
+	 * 
+	 * @param data The frequency data
+	 * @param from The index of the first char
+	 * @param to The index after the last char
+	 */
+	public void count(CharSequence data, int from, int to)
+	{
+		long[] counts = this.counts;
+		
+		for (int i=from; i<to; i++)
+		{
+			char c = data.charAt(i);
+			if (c<counts.length && !Character.isSurrogate(c))
+			{
+				counts[c]++;
+				continue;
+			}
+			
+			//a surrogate pair is one symbol
+			if (Character.isHighSurrogate(c) && i+1<to && Character.isLowSurrogate(data.charAt(i+1)))
+			{
+				add(Character.toCodePoint(c, data.charAt(i+1)), 1);
+				i++;
+			}
+			else
+			{
+				add(c, 1);
+				counts = this.counts;
+			}
+		}
+	}
+	
+	/**
+	 * Adds to the count of a symbol
+	 * 
+	 * @param symbol The code point
+	 * @param count How many more times it appears
+	 * @throws IllegalArgumentException if the symbol is not a code point or the count is negative
+	 */
+	public void add(int symbol, long count)
+	{
+		if (!Character.isValidCodePoint(symbol) || count<0)
+		{
+			throw new IllegalArgumentException("invalid count "+count+" for symbol "+symbol);
+		}
+		if (symbol>Character.MAX_VALUE)
+		{
+			supplementary.merge(symbol, count, CodeLengths::sum);
+			return;
+		}
+		if (symbol>=counts.length)
+		{
+			counts = Arrays.copyOf(counts, Math.max(symbol+1, Math.min(counts.length*2, Character.MAX_VALUE+1)));
+		}
+		counts[symbol] = CodeLengths.sum(counts[symbol], count);
+	}
+
+	
+	/**
+	 * Adds the counts of another histogram to this one
+	 * 
+	 * @param other The other histogram
+	 */
+	void addAll(Histogram other)
+	{
+		for (int c=other.counts.length-1; c>=0; c--)
+		{
+			if (other.counts[c]!=0)
+			{
+				add(c, other.counts[c]);
+			}
+		}
+		for (Map.Entry<Integer, Long> entry: other.supplementary.entrySet())
+		{
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the histogram of the data of this one and another together. Neither is
+	 * changed, so merges can be done in any order and grouping
+	 * 
+	 * @param other The other histogram
+	 * @return the merged histogram
+	 */
+	public Histogram merge(Histogram other)
+	{
+		Histogram merged = copy();
+		merged.addAll(other);
+		return merged;
+	}
+	
+	/**
+	 * Returns a copy of this histogram
+	 * 
+	 * @return the copy
+	 */
+	Histogram copy()
+	{
+		Histogram copy = new Histogram();
+		copy.counts = counts.clone();
+		copy.supplementary.putAll(supplementary);
+		return copy;
+	}
+	
+	/**
+	 * Returns the count of a symbol
+	 * 
+	 * @param symbol The code point
+	 * @return the number of times it appears
+	 */
+	public long get(int symbol)
+	{
+		if (symbol>Character.MAX_VALUE)
+		{
+			Long count = supplementary.get(symbol);
+			return count==null ? 0 : count;
+		}
+		return symbol>=0 && symbol<counts.length ? counts[symbol] : 0;
+	}
+	
+	/**
+	 * Returns the total of the counts
+	 * 
+	 * @return the number of symbols counted, or Long.MAX_VALUE if there are more
+	 */
+	public long total()
+	{
+		long total = 0;
+		for (int c: symbols())
+		{
+			total = CodeLengths.sum(total, get(c));
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns a copy of this histogram scaled to a new total, such as to keep merged
+	 * histograms or ones that keep on counting to a bounded size, or to make older
+	 * counts weigh less than the ones added after scaling. Every symbol that appears
+	 * keeps a count of at least 1, so the new total can be a little over the one asked for
+	 * 
+	 * @param total The total to scale to
+	 * @return the scaled histogram
+	 * @throws IllegalArgumentException if the total is not positive
+	 */
+	public Histogram scaled(long total)
+	{
+		if (total<1)
+		{
+			throw new IllegalArgumentException("invalid total "+total);
+		}
+		//the total of the counts is added up in floating point, which cannot overflow
+		double from = 0;
+		for (int c: symbols())
+		{
+			from += get(c);
+		}
+		
+		Histogram histogram = new Histogram();
+		for (int c: symbols())
+		{
+			histogram.add(c, Math.max(1, (long)Math.min(Long.MAX_VALUE/2, Math.rint(get(c)/from*total))));
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Estimates how much longer some data gets with codes built from one histogram than
+	 * with the best codes for the data. The codes get an escape, and symbols missing from
+	 * the histogram cost the escape and its literal
+	 * 
+	 * @param model The histogram the codes are built from
+	 * @param data The histogram of the data
+	 * @return the extra bits as a fraction of the bits with the best codes
+	 */
+	static double loss(Histogram model, Histogram data)
+	{
+		int[] present = data.symbols();
+		long[] counts = new long[present.length];
+		for (int i=0; i<present.length; i++)
+		{
+			counts[i] = data.get(present[i]);
+		}
+		int[] best = CodeLengths.lengths(counts);
+		
+		double bestBits = 0;
+		for (int i=0; i<present.length; i++)
+		{
+			bestBits += (double)counts[i]*best[i];
+		}
+		return bestBits==0 ? 0 : bits(model, 1, data)/bestBits-1;
+	}
+	
+	/**
+	 * Returns how many bits some data takes with the Huffman codes of a histogram and an
+	 * escape. Symbols missing from the histogram cost the escape and its literal
+	 * 
+	 * @param model The histogram the codes are built from
+	 * @param escapeWeight The weight of the escape in the codes
+	 * @param data The histogram of the data
+	 * @return the number of bits
+	 */
+	static double bits(Histogram model, long escapeWeight, Histogram data)
+	{
+		int[] symbols = model.symbols();
+		long[] weights = new long[symbols.length+1];
+		for (int i=0; i<symbols.length; i++)
+		{
+			weights[i] = model.get(symbols[i]);
+		}
+		weights[symbols.length] = escapeWeight;
+		int[] lengths = CodeLengths.lengths(weights);
+		
+		double bits = 0;
+		for (int c: data.symbols())
+		{
+			int k = Arrays.binarySearch(symbols, c);
+			int length = k>=0 ? lengths[k] : lengths[symbols.length]+DecodeTable.LITERAL_BITS;
+			bits += (double)data.get(c)*length;
+		}
+		return bits;
+	}
+	
+	/**
+	 * Returns the symbols that appear at least once
+	 * 
+	 * @return the code points, in order
+	 */
+	public int[] symbols()
+	{
+		int n = 0;
+		for (long count: counts)
+		{
+			if (count!=0)
+			{
+				n++;
+			}
+		}
+		
+		int[] symbols = new int[n+supplementary.size()];
+		n = 0;
+		for (int c=0; c<counts.length; c++)
+		{
+			if (counts[c]!=0)
+			{
+				symbols[n++] = c;
+			}
+		}
+		for (Integer c: supplementary.keySet())
+		{
+			symbols[n++] = c;
+		}
+		Arrays.sort(symbols, n-supplementary.size(), n);
+		return symbols;
+	}
+	
+	/**
+	 * Writes the histogram as the counts of the symbols that appear
+	 * 
+	 * @return the counts, a few bytes for each symbol
+	 */
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			write(bytes);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Reads a histogram written by toByteArray
+	 * 
+	 * @param data The counts
+	 * @return the histogram
+	 * @throws IllegalArgumentException if the data is not a histogram
+	 */
+	public static Histogram fromByteArray(byte[] data)
+	{
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		Histogram histogram = new Histogram();
+		try
+		{
+			histogram.read(bytes);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalArgumentException("invalid histogram", e);
+		}
+		if (bytes.available()!=0)
+		{
+			throw new IllegalArgumentException("invalid histogram: "+bytes.available()+" bytes left over");
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Writes the number of symbols that appear and, in symbol order, the gap from the
+	 * symbol before and the count of each
+	 */
+	private void write(OutputStream out) throws IOException
+	{
+		int[] symbols = symbols();
+		Varint.write(out, symbols.length);
+		int previous = -1;
+		for (int c: symbols)
+		{
+			Varint.write(out, c-previous-1);
+			Varint.write(out, get(c));
+			previous = c;
+		}
+	}
+	
+	/**
+	 * Reads the counts written by write into this empty histogram
+	 * 
+	 * @throws IOException if the data ends early or is not a histogram
+	 */
+	private void read(InputStream in) throws IOException
+	{
+		long n = Varint.read(in);
+		if (n<0)
+		{
+			throw new EOFException("histogram ends before its symbol count");
+		}
+		long previous = -1;
+		for (long i=0; i<n; i++)
+		{
+			//the gap is checked before it is added, so a huge one cannot wrap around
+			long gap = Varint.read(in);
+			long c = gap<0 || gap>Character.MAX_CODE_POINT-previous-1 ? Character.MAX_CODE_POINT+1 : previous+1+gap;
+			long count = Varint.read(in);
+			if (c>Character.MAX_CODE_POINT || count<0)
+			{
+				throw new InvalidObjectException("invalid count "+count+" for symbol "+c);
+			}
+			add((int)c, count);
+			previous = c;
+		}
+	}
+	
+	/**
+	 * Serializes the histogram in the form of toByteArray
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		write(out);
+	}
+	
+	/**
+	 * Deserializes a histogram written by writeObject
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		counts = new long[INITIAL_SIZE];
+		supplementary = new HashMap<Integer, Long>();
+		read(in);
+	}
+	
+	/**
+	 * Keeps a sample of the chunks of a stream of chars, each chunk kept with the same
+	 * chance. A chunk that would end in the middle of a surrogate pair ends before it
+	 */
+	private static class Reservoir
+	{
+		private final char[][] chunks;
+		private final int[] lengths;
+		private final Random random;
+		//the number of chunks seen so far, whether they were kept or not
+		private long seen;
+		private char[] current;
+		private int n;
+		private long length;
+		
+		Reservoir(int chunks, int chunkLength)
+		{
+			this.chunks = new char[chunks][];
+			lengths = new int[chunks];
+			random = new Random(0);
+			current = new char[chunkLength];
+		}
+		
+		/**
+		 * Adds the chars between two indexes of some data to the stream
+		 */
+		void add(CharSequence data, int from, int to)
+		{
+			length += to-from;
+			for (int i=from; i<to; i++)
+			{
+				current[n++] = data.charAt(i);
+				if (n==current.length)
+				{
+					endChunk();
+				}
+			}
+		}
+		
+		/**
+		 * Offers the current chunk to the reservoir and starts the next one
+		 */
+		private void endChunk()
+		{
+			char carry = current[n-1];
+			boolean split = n>1 && Character.isHighSurrogate(carry);
+			int end = split ? n-1 : n;
+			
+			//the first chunks fill the reservoir, and the k-th after that replaces one of
+			//them with a chance of chunks/k
+			long slot = seen<chunks.length ? seen : (long)(random.nextDouble()*(seen+1));
+			char[] next = current;
+			if (slot<chunks.length)
+			{
+				next = chunks[(int)slot]==null ? new char[current.length] : chunks[(int)slot];
+				chunks[(int)slot] = current;
+				lengths[(int)slot] = end;
+			}
+			seen++;
+			current = next;
+			n = 0;
+			if (split)
+			{
+				current[n++] = carry;
+			}
+		}
+		
+		/**
+		 * Returns the histograms of the even and of the odd numbered chunks kept, or just
+		 * the histogram of every char if no chunk had to be left out
+		 */
+		Histogram[] finish()
+		{
+			if (seen<chunks.length || (seen==chunks.length && n==0))
+			{
+				Histogram all = new Histogram();
+				for (int k=0; k<seen; k++)
+				{
+					all.count(CharBuffer.wrap(chunks[k]), 0, lengths[k]);
+				}
+				all.count(CharBuffer.wrap(current), 0, n);
+				return new Histogram[] {all};
+			}
+			Histogram[] halves = {new Histogram(), new Histogram()};
+			for (int k=0; k<chunks.length; k++)
+			{
+				halves[k & 1].count(CharBuffer.wrap(chunks[k]), 0, lengths[k]);
+			}
+			return halves;
+		}
+	}
+	
+	/**
+	 * Counts a range of the frequency data, splitting it in half until the halves are
+	 * short enough to count on one thread
+	 */
+	@SuppressWarnings("serial")
+	private static class Counter extends RecursiveTask<Histogram>
+	{
+		private final CharSequence data;
+		private final int from;
+		private final int to;
+		
+		Counter(CharSequence data, int from, int to)
+		{
+			this.data = data;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected Histogram compute()
+		{
+			if (to-from<=PARALLEL_THRESHOLD)
+			{
+				Histogram histogram = new Histogram();
+				histogram.count(data, from, to);
+				return histogram;
+			}
+			
+			//keep surrogate pairs on one side
+			int middle = (from+to)>>>1;
+			if (Character.isHighSurrogate(data.charAt(middle-1)) && Character.isLowSurrogate(data.charAt(middle)))
+			{
+				middle++;
+			}
+			Counter left = new Counter(data, from, middle);
+			left.fork();
+			Histogram histogram = new Counter(data, middle, to).compute();
+			histogram.addAll(left.join());
+			return histogram;
+		}
+	}
+}
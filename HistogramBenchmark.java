@@ -0,0 +1,75 @@
+import java.util.Random;
+
+/**
+ * Measures how fast Histogram counts bytes with its interleaved banks against a single
+ * array of counts, on inputs from a run of one byte to random bytes. The low entropy
+ * inputs are where the single array slows down, each increment of the same count
+ * waiting on the one before it
+ * 
+ * @author Jason Malia
+ */
+
+class HistogramBenchmark {
+	
+	private static final int SIZE = 1<<24;
+	private static final int ROUNDS = 20;
+	
+	public static void main(String args[])
+	{
+		Random random = new Random(1);
+		byte[] same = new byte[SIZE];
+		byte[] two = new byte[SIZE];
+		byte[] skewed = new byte[SIZE];
+		byte[] uniform = new byte[SIZE];
+		for (int i=0; i<SIZE; i++)
+		{
+			same[i] = 'a';
+			two[i] = (byte)(random.nextInt(8)==0 ? 'b' : 'a');
+			//about one byte in 2^k is k, a geometric distribution like text
+			skewed[i] = (byte)Long.numberOfTrailingZeros(random.nextLong());
+			uniform[i] = (byte)random.nextInt();
+		}
+		
+		run("one byte", same);
+		run("two bytes", two);
+		run("skewed", skewed);
+		run("uniform", uniform);
+	}
+	
+	/**
+	 * Times both kernels on some input, after a warm up, and prints their best speed
+	 */
+	private static void run(String name, byte[] data)
+	{
+		long single = Long.MAX_VALUE;
+		long banked = Long.MAX_VALUE;
+		int check = 0;
+		
+		for (int round=0; round<ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			check += countSingle(data)[data[0] & 0xFF];
+			long middle = System.nanoTime();
+			check += Histogram.ofBytes(data, 0, data.length).get(data[0] & 0xFF);
+			long end = System.nanoTime();
+			single = Math.min(single, middle-start);
+			banked = Math.min(banked, end-middle);
+		}
+		
+		System.out.printf("%-10s single %6.0f MB/s   %d banks %6.0f MB/s   (%d)%n", name,
+				SIZE*1e3/single, Histogram.BANKS, SIZE*1e3/banked, check);
+	}
+	
+	/**
+	 * Counts bytes in one array of counts
+	 */
+	private static int[] countSingle(byte[] data)
+	{
+		int[] counts = new int[0x100];
+		for (int i=0; i<data.length; i++)
+		{
+			counts[data[i] & 0xFF]++;
+		}
+		return counts;
+	}
+}
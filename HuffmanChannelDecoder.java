@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * Represent a decoder of what a HuffmanChannelEncoder encoded, from one ByteBuffer into
+ * another, used the way a CharsetDecoder is. The bits go straight from the source
+ * buffer into a 64-bit register that carries them from one call to the next, and the
+ * decoded bytes straight into the destination, heap or direct.
+ * 
+ * The last two bytes of the source are left in it until the end of the input, since
+ * they may be the padded last byte and the byte telling how much of it is codes, so a
+ * caller compacts the source and reads more into it, as with a CharsetDecoder
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanChannelDecoder {
+	
+	//the size of the buffers transfer moves the bytes through
+	private static final int BUFFER_SIZE = 1<<16;
+	//the bytes held back until the end of the input
+	private static final int TAIL = 2;
+	
+	private final HuffmanEncoderDecoder.Codes codes;
+	//the bits not decoded yet, left aligned, and how many of them there are
+	private long buffer;
+	private int count;
+	//whether an escape has been decoded but not its literal yet
+	private boolean escaped;
+	//whether the end of the encoding is in the register
+	private boolean finished;
+	
+	/**
+	 * Constructs the decoder
+	 * 
+	 * @param codec An Encoder/Decoder with the codes the bytes were encoded with
+	 */
+
+	public HuffmanChannelDecoder(HuffmanEncoderDecoder codec)
+	{
+		codes = codec.codes();
+	}
+	
+	/**
+	 * Decodes as much of the source as the destination has room for
+	 * 
+	 * @param src The encoding, from its position to its limit
+	 * @param dst The buffer to write the decoded bytes into
+	 * @param endOfInput Whether src holds the end of the encoding
+	 * @return UNDERFLOW when it takes more of the encoding to go on, or all of it is
+	 * decoded; OVERFLOW when dst is full; or a malformed result of length 1 when the
+	 * encoding is not valid, after which the decoder has to be reset
+	 */
+	public CoderResult decode(ByteBuffer src, ByteBuffer dst, boolean endOfInput)
+	{
+		DecodeTable table = codes.table;
+		long buffer = this.buffer;
+		int count = this.count;
+		
+		try
+		{
+			while (true)
+			{
+				while (count<=56 && src.remaining()>TAIL)
+				{
+					buffer |= (long)(src.get() & 0xFF)<<(56-count);
+					count += 8;
+				}
+				//the last byte only adds the bits the final byte says are codes
+				if (endOfInput && !finished && count<=56)
+				{
+					int pos = src.position();
+					if (src.remaining()==2)
+					{
+						int valid = src.get(pos+1) & 0xFF;
+						if (valid<1 || valid>8)
+						{
+							return CoderResult.malformedForLength(1);
+						}
+						buffer |= (long)(src.get(pos) & 0xFF & 0xFF<<(8-valid))<<(56-count);
+						count += valid;
+					}
+					else if (src.remaining()!=1 || src.get(pos)!=0)
+					{
+						return CoderResult.malformedForLength(1);
+					}
+					src.position(src.limit());
+					finished = true;
+				}
+				
+				if (escaped)
+				{
+					if (count<DecodeTable.LITERAL_BITS)
+					{
+						return finished ? CoderResult.malformedForLength(1) : CoderResult.UNDERFLOW;
+					}
+					int literal = (int)(buffer>>>(64-DecodeTable.LITERAL_BITS));
+					if (literal>0xFF)
+					{
+						return CoderResult.malformedForLength(1);
+					}
+					if (!dst.hasRemaining())
+					{
+						return CoderResult.OVERFLOW;
+					}
+					dst.put((byte)literal);
+					buffer <<= DecodeTable.LITERAL_BITS;
+					count -= DecodeTable.LITERAL_BITS;
+					escaped = false;
+					continue;
+				}
+				if (count==0)
+				{
+					return CoderResult.UNDERFLOW;
+				}
+				if (!dst.hasRemaining())
+				{
+					return CoderResult.OVERFLOW;
+				}
+				
+				//the bits past the count are 0's, so a code that needs them is either
+				//still coming or, at the end or with a full register, not a code
+				int decoded;
+				try
+				{
+					decoded = table.lookup(buffer);
+				}
+				catch (IllegalArgumentException e)
+				{
+					decoded = 0xFF;
+				}
+				int length = decoded & 0xFF;
+				if (length>count)
+				{
+					return finished || count>56 ? CoderResult.malformedForLength(1) : CoderResult.UNDERFLOW;
+				}
+				buffer <<= length;
+				count -= length;
+				
+				int symbol = decoded>>>8;
+				if (symbol==DecodeTable.ESCAPE)
+				{
+					escaped = true;
+				}
+				else if (symbol>0xFF)
+				{
+					return CoderResult.malformedForLength(1);
+				}
+				else
+				{
+					dst.put((byte)symbol);
+				}
+			}
+		}
+		finally
+		{
+			this.buffer = buffer;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * Returns whether the end of the encoding has been decoded
+	 * 
+	 * @return true once decode has reached the end of the input and decoded it all
+	 */
+	public boolean isFinished()
+	{
+		return finished && count==0 && !escaped;
+	}
+	
+	/**
+	 * Clears the decoder for a new encoding
+	 * 
+	 * @return this decoder
+	 */
+	public HuffmanChannelDecoder reset()
+	{
+		buffer = 0;
+		count = 0;
+		escaped = false;
+		finished = false;
+		return this;
+	}
+	
+	/**
+	 * Decodes everything a channel holds into another channel through two direct buffers.
+	 * The decoder is reset first, and neither channel is closed
+	 * 
+	 * @param in The channel of the encoding
+	 * @param out The channel to write the decoded bytes to
+	 * @return the number of bytes written
+	 * @throws IOException if a channel fails or the encoding is not valid
+	 */
+	public long transfer(ReadableByteChannel in, WritableByteChannel out) throws IOException
+	{
+		reset();
+		ByteBuffer src = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ByteBuffer dst = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		long written = 0;
+		boolean end = false;
+		
+		while (true)
+		{
+			end = end || in.read(src)<0;
+			src.flip();
+			CoderResult result = decode(src, dst, end);
+			src.compact();
+			if (result.isMalformed())
+			{
+				throw new IOException("invalid encoding");
+			}
+			
+			dst.flip();
+			while (dst.hasRemaining())
+			{
+				written += out.write(dst);
+			}
+			dst.clear();
+			if (end && result.isUnderflow())
+			{
+				return written;
+			}
+		}
+	}
+}
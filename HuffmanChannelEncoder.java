@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * Represent an encoder of bytes, as the symbols 0 to 255, from one ByteBuffer into
+ * another, used the way a CharsetEncoder is: encode is called as input comes in and
+ * output room frees up, and flush ends the encoding. The bytes go straight from the
+ * source buffer into the destination, heap or direct, through a 64-bit register that
+ * carries the bits short of a whole byte from one call to the next.
+ * 
+ * The encoding is the packed codes, padded with 0's to a whole byte, followed by a byte
+ * telling how many bits of the last byte are codes, or 0 if there are none. The codes
+ * are the ones the Encoder/Decoder has when the encoder is constructed, so a
+ * HuffmanChannelDecoder over an Encoder/Decoder with the same codes decodes it
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanChannelEncoder {
+	
+	//the size of the buffers transfer moves the bytes through
+	private static final int BUFFER_SIZE = 1<<16;
+	
+	private final HuffmanEncoderDecoder.Codes codes;
+	//the bits not written out yet, left aligned, and how many of them there are
+	private long buffer;
+	private int count;
+	//a byte whose escape is in the register but not its literal yet, or -1
+	private int literal = -1;
+	//whether any codes have been written, and whether flush has ended the encoding
+	private boolean written;
+	private boolean flushed;
+	//the bits of the last byte that are codes, once flush has written it
+	private int lastBits;
+	
+	/**
+	 * Constructs the encoder
+	 * 
+	 * @param codec The Encoder/Decoder whose codes encode the bytes
+	 */
+
+	public HuffmanChannelEncoder(HuffmanEncoderDecoder codec)
+	{
+		codes = codec.codes();
+	}
+	
+	/**
+	 * Encodes as many bytes from the source as the destination has room for. The bits
+	 * short of a whole byte stay in the encoder until more bytes or flush come along
+	 * 
+	 * @param src The bytes to encode, from its position to its limit
+	 * @param dst The buffer to write the encoding into
+	 * @param endOfInput Whether src holds the last of the input. Encoding needs no look
+	 * ahead, so it is only there to match CharsetEncoder; flush writes the end
+	 * @return UNDERFLOW when all of src is encoded, OVERFLOW when dst is full, or an
+	 * unmappable result of length 1 when the byte at src's position has no encoding and
+	 * there is no escape
+	 * @throws IllegalStateException if the encoder has been flushed and not reset
+	 */
+	public CoderResult encode(ByteBuffer src, ByteBuffer dst, boolean endOfInput)
+	{
+		if (flushed)
+		{
+			throw new IllegalStateException("the encoder has been flushed");
+		}
+		SymbolTable packedCodes = codes.packedCodes;
+		long escapeCode = codes.escapeCode;
+		long buffer = this.buffer;
+		int count = this.count;
+		
+		try
+		{
+			while (true)
+			{
+				while (count>=8)
+				{
+					if (!dst.hasRemaining())
+					{
+						return CoderResult.OVERFLOW;
+					}
+					dst.put((byte)(buffer>>>56));
+					buffer <<= 8;
+					count -= 8;
+				}
+				//the literal goes in once the escape has made room for it
+				if (literal>=0)
+				{
+					buffer |= (long)literal<<(64-DecodeTable.LITERAL_BITS-count);
+					count += DecodeTable.LITERAL_BITS;
+					literal = -1;
+					continue;
+				}
+				if (!src.hasRemaining())
+				{
+					return CoderResult.UNDERFLOW;
+				}
+				
+				int b = src.get() & 0xFF;
+				long packed = packedCodes.get(b);
+				if (packed==0)
+				{
+					if (escapeCode==0)
+					{
+						src.position(src.position()-1);
+						return CoderResult.unmappableForLength(1);
+					}
+					packed = escapeCode;
+					literal = b;
+				}
+				int length = (int)(packed & 0xFF);
+				buffer |= (packed>>>8)<<(64-length-count);
+				count += length;
+				written = true;
+			}
+		}
+		finally
+		{
+			this.buffer = buffer;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * Ends the encoding: writes the bits left in the encoder, padded to a whole byte, and
+	 * the byte telling how many of them are codes. Once it returns UNDERFLOW, encode
+	 * throws until the encoder is reset, and more flushes do nothing
+	 * 
+	 * @param dst The buffer to write into
+	 * @return UNDERFLOW when the encoding is complete, or OVERFLOW when dst needs more room
+	 */
+	public CoderResult flush(ByteBuffer dst)
+	{
+		if (flushed)
+		{
+			return CoderResult.UNDERFLOW;
+		}
+		if (encode(ByteBuffer.allocate(0), dst, true).isOverflow())
+		{
+			return CoderResult.OVERFLOW;
+		}
+		if (count>0)
+		{
+			if (!dst.hasRemaining())
+			{
+				return CoderResult.OVERFLOW;
+			}
+			dst.put((byte)(buffer>>>56));
+			lastBits = count;
+			buffer = 0;
+			count = 0;
+		}
+		else if (lastBits==0 && written)
+		{
+			lastBits = 8;
+		}
+		if (!dst.hasRemaining())
+		{
+			return CoderResult.OVERFLOW;
+		}
+		dst.put((byte)lastBits);
+		flushed = true;
+		return CoderResult.UNDERFLOW;
+	}
+	
+	/**
+	 * Clears the encoder for a new encoding, dropping anything encode left in it
+	 * 
+	 * @return this encoder
+	 */
+	public HuffmanChannelEncoder reset()
+	{
+		buffer = 0;
+		count = 0;
+		literal = -1;
+		written = false;
+		flushed = false;
+		lastBits = 0;
+		return this;
+	}
+	
+	/**
+	 * Encodes everything a channel holds into another channel through two direct buffers,
+	 * and flushes. The encoder is reset first, and neither channel is closed
+	 * 
+	 * @param in The channel of bytes to encode
+	 * @param out The channel to write the encoding to
+	 * @return the number of bytes written
+	 * @throws IOException if a channel fails
+	 * @throws IllegalArgumentException if a byte has no encoding and there is no escape
+	 */
+	public long transfer(ReadableByteChannel in, WritableByteChannel out) throws IOException
+	{
+		reset();
+		ByteBuffer src = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ByteBuffer dst = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		long written = 0;
+		boolean end = false;
+		
+		while (true)
+		{
+			end = end || in.read(src)<0;
+			src.flip();
+			CoderResult result = end && !src.hasRemaining() ? flush(dst) : encode(src, dst, end);
+			src.compact();
+			if (result.isUnmappable())
+			{
+				throw new IllegalArgumentException("byte "+(src.get(0) & 0xFF)+" has no encoding");
+			}
+			
+			dst.flip();
+			while (dst.hasRemaining())
+			{
+				written += out.write(dst);
+			}
+			dst.clear();
+			if (flushed)
+			{
+				return written;
+			}
+		}
+	}
+}
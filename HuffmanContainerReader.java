@@ -0,0 +1,155 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Represent a reader of the container format HuffmanContainerWriter writes. Blocks are
+ * read one at a time, and every block's checksum is checked before it is decoded;
+ * skipBlock checks a block without decoding it, so a whole container can be checked at
+ * the speed of CRC32C
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanContainerReader implements Closeable {
+	
+	private final InputStream in;
+	//the shared codes, or null if the container has none
+	private final HuffmanEncoderDecoder shared;
+	private boolean ended;
+	
+	/**
+	 * Constructs the reader and reads the header of the container
+	 * 
+	 * @param in The stream of the container
+	 * @throws IOException if the stream fails or does not start with a valid header
+	 */
+
+	public HuffmanContainerReader(InputStream in) throws IOException
+	{
+		this.in = in;
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		copy(Container.MAGIC.length+1, header);
+		if (!Arrays.equals(Arrays.copyOf(header.toByteArray(), Container.MAGIC.length), Container.MAGIC))
+		{
+			throw new IOException("not a Huffman container");
+		}
+		int tableLength = copyLength(header, Container.MAX_TABLE);
+		copy(tableLength+4, header);
+		shared = Container.readHeader(ByteBuffer.wrap(header.toByteArray()));
+	}
+	
+	/**
+	 * Reads, checks and decodes the next block
+	 * 
+	 * @return the bytes of the block, or null after the last block
+	 * @throws IOException if the stream fails or the block is not valid
+	 */
+	public byte[] readBlock() throws IOException
+	{
+		Container.Block block = nextBlock();
+		if (block==null)
+		{
+			return null;
+		}
+		byte[] raw = new byte[block.rawLength];
+		Container.decode(block, shared, ByteBuffer.wrap(raw));
+		return raw;
+	}
+	
+	/**
+	 * Reads the next block and checks its checksum without decoding it
+	 * 
+	 * @return the number of bytes the block decodes to, or -1 after the last block
+	 * @throws IOException if the stream fails or the checksum does not match
+	 */
+	public int skipBlock() throws IOException
+	{
+		Container.Block block = nextBlock();
+		return block==null ? -1 : block.rawLength;
+	}
+	
+	/**
+	 * Closes the stream
+	 * 
+	 * @throws IOException if the stream fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	
+	/**
+	 * Reads the next block and checks its checksum
+	 * 
+	 * @return the block, or null after the last block
+	 */
+	private Container.Block nextBlock() throws IOException
+	{
+		if (ended)
+		{
+			return null;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		copy(1, bytes);
+		int kind = bytes.toByteArray()[0];
+		if (kind==Container.END)
+		{
+			ended = true;
+			return null;
+		}
+		//every length is checked before anything that long is read, so a corrupt one
+		//fails here rather than after buffering up to 256 MB for the checksum
+		copyLength(bytes, Container.MAX_BLOCK_SIZE);
+		int length = copyLength(bytes, Container.MAX_BLOCK_SIZE);
+		if (kind==Container.OWN_TABLE)
+		{
+			copy(copyLength(bytes, Container.MAX_TABLE), bytes);
+		}
+		copy(length+4, bytes);
+		return Container.readBlock(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+	
+	/**
+	 * Reads a Varint length from the stream, copies it and returns it
+	 * 
+	 * @throws IOException if the length is over max
+	 */
+	private int copyLength(ByteArrayOutputStream to, int max) throws IOException
+	{
+		long number = Varint.read(in);
+		if (number<0)
+		{
+			throw new EOFException("container ends early");
+		}
+		if (number>max)
+		{
+			throw new IOException("invalid length");
+		}
+		Varint.write(to, number);
+		return (int)number;
+	}
+	
+	/**
+	 * Copies bytes from the stream
+	 */
+	private void copy(int n, ByteArrayOutputStream to) throws IOException
+	{
+		byte[] buffer = new byte[Math.min(n, 1<<16)];
+		while (n>0)
+		{
+			int read = in.read(buffer, 0, Math.min(n, buffer.length));
+			if (read<0)
+			{
+				throw new EOFException("container ends early");
+			}
+			to.write(buffer, 0, read);
+			n -= read;
+		}
+	}
+}
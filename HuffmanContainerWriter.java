@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Represent a writer of the container format, which makes compressed bytes
+ * self-contained: a header, then blocks that each carry their raw and encoded lengths,
+ * the code length table they are encoded with or a reference to one shared by the
+ * whole container, and a CRC32C. Each block gets whichever of its own table, the shared
+ * table or no encoding makes it shortest. A HuffmanContainerReader reads it back block
+ * by block without anything else, and with an index of the blocks written after them a
+ * SeekableHuffmanReader reads any range of it decoding only the blocks that hold it
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanContainerWriter implements Closeable {
+	
+	private final OutputStream out;
+	private final HuffmanEncoderDecoder shared;
+	//the blocks written so far, when the container gets an index
+	private final Container.Index index;
+	private ByteBuffer buffer = ByteBuffer.allocate(0);
+	private boolean closed;
+	
+	/**
+	 * Constructs the writer and writes the header of the container
+	 * 
+	 * @param out The stream to write the container to
+	 * @param shared An Encoder/Decoder with canonical codes that blocks can share, such
+	 * as one trained on data like the blocks, or null to give every block its own table
+	 * @throws IOException if the stream fails
+	 * @throws IllegalStateException if the shared codes are not canonical
+	 * @throws IllegalArgumentException if the shared codes have a character other than a
+	 * byte or the escape
+	 */
+
+	public HuffmanContainerWriter(OutputStream out, HuffmanEncoderDecoder shared) throws IOException
+	{
+		this(out, shared, false);
+	}
+	
+	/**
+	 * Constructs the writer and writes the header of the container
+	 * 
+	 * @param out The stream to write the container to
+	 * @param shared An Encoder/Decoder with canonical codes that blocks can share, or null
+	 * to give every block its own table
+	 * @param indexed Whether to write an index of the blocks after them when closed
+	 * @throws IOException if the stream fails
+	 * @throws IllegalStateException if the shared codes are not canonical
+	 * @throws IllegalArgumentException if the shared codes have a character other than a
+	 * byte or the escape
+	 */
+
+	public HuffmanContainerWriter(OutputStream out, HuffmanEncoderDecoder shared, boolean indexed) throws IOException
+	{
+		this.out = out;
+		this.shared = shared;
+		byte[] header = Container.header(shared);
+		out.write(header);
+		index = indexed ? new Container.Index(header.length) : null;
+	}
+	
+	/**
+	 * Writes bytes as one block, or as several if there are more than a block holds
+	 * 
+	 * @param b The bytes
+	 * @param off The index of the first byte
+	 * @param len The number of bytes
+	 * @throws IOException if the stream fails or the writer is closed
+	 */
+	public void writeBlock(byte[] b, int off, int len) throws IOException
+	{
+		if ((off | len | b.length-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+b.length);
+		}
+		if (closed)
+		{
+			throw new IOException("writer closed");
+		}
+		for (int i=off; i==off || i<off+len; i+=Container.MAX_BLOCK_SIZE)
+		{
+			int length = Math.min(off+len-i, Container.MAX_BLOCK_SIZE);
+			if (buffer.capacity()<Container.maxBlockLength(length))
+			{
+				buffer = ByteBuffer.allocate(Container.maxBlockLength(length));
+			}
+			buffer.clear();
+			Container.writeBlock(ByteBuffer.wrap(b, i, length), shared, buffer);
+			out.write(buffer.array(), 0, buffer.position());
+			if (index!=null)
+			{
+				index.add(length, buffer.position());
+			}
+		}
+	}
+	
+	/**
+	 * Writes the end of the container, and its index if it has one, and closes the stream
+	 * 
+	 * @throws IOException if the stream fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		try
+		{
+			out.write(Container.END);
+			if (index!=null)
+			{
+				out.write(Container.index(index));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -1,6 +1,21 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represent a Huffman Encoder/Decoder
@@ -10,169 +25,442 @@ import java.util.PriorityQueue;
 
 public class HuffmanEncoderDecoder {
 	
-	private Map<Character, Integer> frequencies;
-	private Map<Character, String> encoder;
-	private Map<String, Character> decoder;
-	private Node structure;
+	//the number of streams encodeInterleaved splits the characters into
+	private static final int STREAMS = 4;
+	//the number of texts train sets aside for every one it holds out by default
+	private static final int HELD_OUT_EVERY = 10;
+	
+	//the frequency of each character, by Unicode code point so a supplementary character
+	//is one symbol, guarded by this
+	private Histogram frequencies;
+	//the codes in use, replaced whole when they are rebuilt
+	private volatile Codes codes;
+	//held while codes are rebuilt
+	private final ReentrantLock rebuilding = new ReentrantLock();
+	//the characters observed since the codes were built, guarded by this
+	private long observed;
+	//set when there are observations the codes do not include yet
+	private volatile boolean dirty;
+	//set when, without an escape, a character the codes do not have has been observed,
+	//guarded by this
+	private boolean newSymbol;
+	//set when the codes were given rather than built from frequency data, so there is
+	//nothing to add observations to
+	private boolean fixedCodes;
+	//how many observations and how much of a gain it takes to rebuild the codes
+	private long rebuildSymbols;
+	private double rebuildGain;
+	//whether codes are reassigned canonically from their lengths
+	private boolean canonical;
+	//the longest code allowed, or 0 for no limit
+	private int maxCodeLength;
+	//whether the decode table also decodes several short codes per lookup
+	private boolean multiSymbolDecoding;
+	//whether the tree has an escape code for characters without an encoding of their own
+	private boolean escape;
+	//the frequency given to the escape code
+	private long escapeFrequency;
+	//the estimated loss of training on a sample rather than all the frequency data
+	private double samplingLoss;
+	//the bits per character of the texts train held out, or NaN if it did not train
+	private double heldOutBitsPerCharacter = Double.NaN;
+	//the total the frequency data is scaled to whenever codes are built, or 0 to keep it as counted
+	private long normalizedTotal;
+	//the characters of the frequency data string in the order they first appear, whose
+	//order in a HashMap the tree breaks ties by, or null to break them by code point
+	private int[] firstSeen;
 	
 	/**
-	 * Constructs the Encoder/Decoder
+	 * Constructs the Encoder/Decoder. Characters of equal frequency are placed in the tree
+	 * in the order a HashMap of the characters iterates them, as they always have been, so
+	 * the codes stay the same as those of earlier versions for the same frequency data
 	 * 
 	 * @param frequencyData A string that is used to generate the frequency data of characters used
 	 */
 
 	public HuffmanEncoderDecoder(String frequencyData)
 	{
-		//maps each character to its frequency
-		frequencies = new HashMap<Character, Integer>();
+		this(Histogram.of(frequencyData), new Builder(), frequencyData);
+	}
+	
+	/**
+	 * Constructs the Encoder/Decoder with the options of a builder
+	 * 
+	 * @param frequencies The frequency data of the characters used
+	 * @param options The builder holding the options
+	 */
+
+	private HuffmanEncoderDecoder(Histogram frequencies, Builder options)
+	{
+		this(frequencies, options, null);
+	}
+	
+	/**
+	 * Constructs the Encoder/Decoder with the options of a builder
+	 * 
+	 * @param frequencies The frequency data of the characters used
+	 * @param options The builder holding the options
+	 * @param frequencyData The string the frequency data was counted from, whose order
+	 * ties in the tree are broken by, or null to break them by code point
+	 */
+
+	private HuffmanEncoderDecoder(Histogram frequencies, Builder options, CharSequence frequencyData)
+	{
+		//lengths limited by package-merge no longer come from a tree, so the codes
+		//have to be assigned canonically
+		canonical = options.canonical || options.maxCodeLength!=0;
+		maxCodeLength = options.maxCodeLength;
+		multiSymbolDecoding = options.multiSymbolDecoding;
+		escape = options.escape;
+		escapeFrequency = options.escapeFrequency;
+		rebuildSymbols = options.rebuildSymbols;
+		rebuildGain = options.rebuildGain;
+		normalizedTotal = options.normalizedTotal;
 		
-		//traverse the frequency data string
-		for(int i=0; i<frequencyData.length();i++)
+		this.frequencies = frequencies;
+		if (frequencyData!=null)
 		{
-			Character c = frequencyData.charAt(i);
-			
-			//if we haven't seen the character
-			if (frequencies.get(c)==null)
+			firstSeen = firstSeen(frequencyData, frequencies.symbols().length);
+		}
+		
+		//creates the encoding/decoding values based on frequency data
+		initializeHuffmanEncoderDecoder();
+	}
+	
+	/**
+	 * Returns the distinct characters of a string in the order they first appear
+	 * 
+	 * @param data The string
+	 * @param distinct The number of distinct characters, so the string is only read up to
+	 * the first appearance of the last one
+	 * @return the code points
+	 */
+	private static int[] firstSeen(CharSequence data, int distinct)
+	{
+		int[] order = new int[distinct];
+		BitSet seen = new BitSet();
+		int n = 0;
+		for (int i=0; n<distinct && i<data.length(); )
+		{
+			int c = Character.codePointAt(data, i);
+			if (!seen.get(c))
 			{
-				//we put it in the frequencies hash map
-				frequencies.put(c, 1);
+				seen.set(c);
+				order[n++] = c;
 			}
-			//we have seen the character already
-			else
+			i += Character.charCount(c);
+		}
+		return order;
+	}
+	
+	/**
+	 * Returns the characters of some frequency data in the order the tree breaks ties by:
+	 * by code point, or for a string given to the constructor, the order a HashMap
+	 * iterates them in when they are put in the order they first appear. Characters
+	 * observed since come after those of the string
+	 * 
+	 * @param frequencies The frequency data
+	 * @return the code points
+	 */
+	private int[] symbolOrder(Histogram frequencies)
+	{
+		int[] symbols = frequencies.symbols();
+		if (firstSeen==null)
+		{
+			return symbols;
+		}
+		Map<Integer, Boolean> order = new HashMap<Integer, Boolean>();
+		for (int c: firstSeen)
+		{
+			order.put(c, Boolean.TRUE);
+		}
+		List<Integer> observedSince = new ArrayList<Integer>();
+		for (int c: symbols)
+		{
+			if (!order.containsKey(c))
 			{
-				//so update its frequency value in the hash map
-				Integer frequency = frequencies.get(c);
-				frequency++;
-				frequencies.put(c, frequency);
+				observedSince.add(c);
 			}
 		}
-		//creates the encoding/decoding values based on frequency data
-		initializeHuffmanEncoderDecoder();
+		int i = 0;
+		for (int c: order.keySet())
+		{
+			symbols[i++] = c;
+		}
+		for (int c: observedSince)
+		{
+			symbols[i++] = c;
+		}
+		return symbols;
 	}
 	
 	/**
-	 * Creates the encoding and decoding based on the frequency data
-	 * passed into the constructor
+	 * Creates the encoding and decoding based on the frequency data passed into the
+	 * constructor and observed since. The new codes replace the old ones whole, so
+	 * encodes and decodes already under way finish with the old ones. Codes from
+	 * fromCodeLengths or frozen have no frequency data to build from and stay as they are
 	 */
 	
 	public void initializeHuffmanEncoderDecoder()
 	{
-		/*
-		 * Priority queue holds the nodes to be added to the tree based on the frequency
-		 * of the character they hold or the order the were created if the frequency is the
-		 * same.
-		 */
-		PriorityQueue<Node> pq = new PriorityQueue<Node>();
-		//encoder - map characters to their encoded string
-		encoder = new HashMap<Character,String>();
-		//decoder - maps encoded strings to their appropriate character
-		decoder = new HashMap<String,Character>();
-		//id of the item added to the tree
-		int id = 0;
-		
-		for(Character key: frequencies.keySet())
+		if (fixedCodes)
 		{
-			//wrap each character in a node and put the nodes in a priority queue
-			pq.add(new Node(key,frequencies.get(key),id));
-			id++;
+			return;
 		}
-		
-		//create the tree
-		while(pq.size()>1)
+		rebuilding.lock();
+		try
 		{
-			Node left = pq.remove();
-			Node right = pq.remove();
-			//make a parent node that holds the first two nodes pulled from the pq
-			Node parent = new Node(null, left.f+right.f, id);
-			parent.left = left;
-			parent.right = right;
-			//put the parent node in the priority queue
-			pq.add(parent);
-			id++;
+			rebuild();
 		}
-		
-		if (pq.size()!=0)
+		finally
 		{
-			//pulls the root node out of the tree; structure
-			//points to the root node
-			structure = pq.remove();
+			rebuilding.unlock();
 		}
-		
-		if (structure != null)
+	}
+	
+	/**
+	 * Builds codes from a copy of the frequency data, so observations can go on while
+	 * they are built, and swaps them in. The rebuilding lock must be held, so codes are
+	 * swapped in the order their frequency data was copied
+	 */
+	private void rebuild()
+	{
+		Histogram copy;
+		synchronized (this)
 		{
-			//setUpMaps sets up a string encoding representation for each character
-			setUpMaps(structure,"0");
+			if (normalizedTotal!=0)
+			{
+				frequencies = frequencies.scaled(normalizedTotal);
+			}
+			copy = frequencies.copy();
+			observed = 0;
+			dirty = false;
+			newSymbol = false;
 		}
+		codes = new Codes(copy, this);
 	}
 	
 	/**
-	 * Recursively builds the string encoding for each character  
+	 * Returns the codes to encode or decode with. When there are observations the codes
+	 * do not include yet, and the rebuild policy calls for it, new codes are built first;
+	 * if another thread is already building them, the old ones are returned rather than
+	 * waiting for it
 	 * 
-	 * @param here The current node
-	 * @param current The string representation of the character if we've reached a leaf node
+	 * @return the codes
 	 */
-	
-	public void setUpMaps(Node here, String current)
+	Codes codes()
 	{
-		//Make the appropriate strings for the right and left children if they exist
-		String left = current.concat("0");
-		String right = current.concat("1");
-		
-		//if we've reached a leaf we've reached a character so update the encoding/decoding
-		//maps as appropriate
-		if (here.left==null && here.right==null)
+		if (dirty && rebuilding.tryLock())
 		{
-			encoder.put(here.c, current);
-			decoder.put(current, here.c);
-			return;
+			try
+			{
+				if (dirty && isWorthRebuilding())
+				{
+					rebuild();
+				}
+			}
+			finally
+			{
+				rebuilding.unlock();
+			}
 		}
-		//if there is a left child go down to it and look for more characters/leaves
-		if (here.left!=null)
+		return codes;
+	}
+	
+	/**
+	 * Returns whether enough has been observed since the codes were built to build them
+	 * again. A failed check of the gain starts the count of observations over, so the
+	 * gain is estimated once every rebuildSymbols observations at most. Without an
+	 * escape, new characters cannot be encoded at all until the rebuild, so a new
+	 * character is always worth rebuilding for
+	 * 
+	 * @return true if the codes should be rebuilt
+	 */
+	private boolean isWorthRebuilding()
+	{
+		Histogram copy;
+		Histogram model = codes.model;
+		synchronized (this)
 		{
-			setUpMaps(here.left,left);
+			if (newSymbol)
+			{
+				return true;
+			}
+			if (observed<rebuildSymbols)
+			{
+				return false;
+			}
+			if (rebuildGain==0)
+			{
+				return true;
+			}
+			copy = frequencies.copy();
+			observed = 0;
 		}
-		//do the same if there is right child
-		if (here.right!=null)
+		return Histogram.loss(model, copy)>=rebuildGain;
+	}
+	
+	/**
+	 * Adds the characters of some text to the frequency data. The codes are rebuilt to
+	 * include them according to the rebuild policy, by the next encode or decode to come
+	 * along; until then the codes stay as they are. Rebuilt codes cannot decode what the
+	 * old ones encoded, so encodings that have to stay decodable are decoded with an
+	 * Encoder/Decoder from frozen, taken when they were encoded
+	 * 
+	 * @param text The text observed
+	 * @throws IllegalStateException if the codes came from fromCodeLengths or frozen,
+	 * which have no frequency data to add to
+	 */
+	public void observe(CharSequence text)
+	{
+		checkObservable();
+		synchronized (this)
 		{
-			setUpMaps(here.right,right);
-		}		
+			frequencies.count(text, 0, text.length());
+			observed += text.length();
+			dirty = true;
+			if (!escape && !newSymbol)
+			{
+				newSymbol = hasNewSymbol(text);
+			}
+		}
 	}
 	
 	/**
-	 * Returns the frequency of each character in the string that was passed into the
-	 * constructor
+	 * Adds to the frequency of a character, as observe(CharSequence) does
 	 * 
-	 * @param c the character the frequency is being checked for
-	 * @return the frequency of that character
+	 * @param c The character observed
+	 * @param count How many more times it was observed
+	 * @throws IllegalArgumentException if the count is negative
+	 * @throws IllegalStateException if the codes came from fromCodeLengths or frozen
 	 */
-	public int getFrequencyForCharacter(char c){
-		if (frequencies.get(c)==null)
+	public void observe(char c, int count)
+	{
+		if (count<0)
 		{
-			return 0;
+			throw new IllegalArgumentException("negative count "+count);
+		}
+		checkObservable();
+		synchronized (this)
+		{
+			frequencies.add(c, count);
+			observed += count;
+			dirty = true;
+			if (!escape && count!=0 && codes.packedCodes.get(c)==0)
+			{
+				newSymbol = true;
+			}
 		}
-		else 
+	}
+	
+	/**
+	 * Throws if the codes were given rather than built from frequency data, which
+	 * observations would replace with codes of only what was observed
+	 */
+	private void checkObservable()
+	{
+		if (fixedCodes)
+		{
+			throw new IllegalStateException("codes from code lengths or frozen cannot observe");
+		}
+	}
+	
+	/**
+	 * Returns whether some text has a character the codes in use do not have
+	 */
+	private boolean hasNewSymbol(CharSequence text)
+	{
+		SymbolTable packedCodes = codes.packedCodes;
+		for (int i=0; i<text.length(); )
 		{
-			return frequencies.get(c);
+			int c = Character.codePointAt(text, i);
+			if (packedCodes.get(c)==0)
+			{
+				return true;
+			}
+			i += Character.charCount(c);
 		}
+		return false;
+	}
+	
+	/**
+	 * Returns the frequency of a character in the frequency data: what was passed into
+	 * the constructor plus what has been observed since, scaled down each time the codes
+	 * are built if the Builder set a normalized total
+	 * 
+	 * @param c the character the frequency is being checked for
+	 * @return the frequency of that character
+	 */
+	public int getFrequencyForCharacter(char c){
+		return getFrequencyForCodePoint(c);
+	}
+	
+	/**
+	 * Returns the frequency of a code point in the frequency data, as
+	 * getFrequencyForCharacter does, which counts a supplementary character once rather
+	 * than as two surrogates
+	 * 
+	 * @param codePoint the code point the frequency is being checked for
+	 * @return the frequency of that code point, or Integer.MAX_VALUE if it is higher; 
+	 * getHistogram has the full count
+	 */
+	public synchronized int getFrequencyForCodePoint(int codePoint){
+		return (int)Math.min(Integer.MAX_VALUE, frequencies.get(codePoint));
+	}
+	
+	/**
+	 * Returns a copy of the frequency data, with counts of 64 bits
+	 * 
+	 * @return the frequency of each code point
+	 */
+	public synchronized Histogram getHistogram()
+	{
+		return frequencies.copy();
 	}
 	
 	/**
 	 * Encodes a character
 	 * 
 	 * @param rawCharacter the character being encoded
-	 * @return The encoding of that character or the character itself if it has no encoding
+	 * @return The encoding of that character. If it has no encoding, the escape followed by
+	 * the character's 21 bits, or if there is no escape the character itself
 	 */
 	public String encodeCharacter(char rawCharacter)
 	{
-		int frequency = getFrequencyForCharacter(rawCharacter);
-		
-		if (frequency==0)
+		return encodeCodePoint(rawCharacter);
+	}
+	
+	/**
+	 * Encodes a code point
+	 * 
+	 * @param codePoint the code point being encoded
+	 * @return The encoding of that code point. If it has no encoding, the escape followed by
+	 * the code point's 21 bits, or if there is no escape the code point itself
+	 */
+	public String encodeCodePoint(int codePoint)
+	{
+		return encodeCodePoint(codes(), codePoint);
+	}
+	
+	/**
+	 * Encodes a code point with the given codes
+	 */
+	private static String encodeCodePoint(Codes codes, int codePoint)
+	{
+		String encoding = codes.encoder().get(codePoint);
+		if (encoding==null)
 		{
-			return String.valueOf(rawCharacter);
+			String escapeString = codes.escapeString();
+			if (escapeString!=null)
+			{
+				//the 21 bits of the code point, made to always have 22 digits by a leading 1
+				return escapeString.concat(Integer.toBinaryString(codePoint | 1<<DecodeTable.LITERAL_BITS).substring(1));
+			}
+			return new String(Character.toChars(codePoint));
 		}
 		else
 		{
-			return encoder.get(rawCharacter);
+			return encoding;
 		}
 	}
 	
@@ -181,131 +469,1381 @@ public class HuffmanEncoderDecoder {
 	 * 
 	 * @param encodedCharacter The string of 0's and 1's
 	 * @return the decoded character or if the passed in string was not 0's and 1's 0 unless it was a 
-	 * single character and in that case returns the character
+	 * single character and in that case returns the character. A supplementary character also
+	 * decodes to 0; decodeCodePoint returns it
 	 */
 	public char decodeCharacter(String encodedCharacter){
 		
-		if (decoder.get(encodedCharacter)==null)
+		int codePoint = decodeCodePoint(encodedCharacter);
+		return Character.isBmpCodePoint(codePoint) ? (char)codePoint : 0;
+	}
+	
+	/**
+	 * Decodes a string of 0's and 1's into a code point
+	 * 
+	 * @param encodedCharacter The string of 0's and 1's
+	 * @return the decoded code point or if the passed in string was not 0's and 1's 0 unless it was a 
+	 * single code point and in that case returns the code point
+	 */
+	public int decodeCodePoint(String encodedCharacter){
+		
+		Codes codes = codes();
+		Integer decoded = codes.decoder().get(encodedCharacter);
+		if (decoded==null)
 		{
-			if (encodedCharacter.length()==1)
+			//the escape followed by the 21 bits of the code point
+			String escapeString = codes.escapeString();
+			if (escapeString!=null && encodedCharacter.startsWith(escapeString)
+					&& encodedCharacter.length()==escapeString.length()+DecodeTable.LITERAL_BITS
+					&& encodedCharacter.matches("[01]*"))
+			{
+				int codePoint = Integer.parseInt(encodedCharacter.substring(escapeString.length()), 2);
+				return Character.isValidCodePoint(codePoint) ? codePoint : 0;
+			}
+			if (encodedCharacter.length()>0 && encodedCharacter.length()==Character.charCount(encodedCharacter.codePointAt(0)))
 			{
-				return encodedCharacter.charAt(0);
+				return encodedCharacter.codePointAt(0);
 			}
 			return 0;
 		}
 		else
 		{
-			return decoder.get(encodedCharacter);
+			return decoded;
 		}
 	}
 	
 	/**
-	 * Encodes a string by encoding each indiviudal character
+	 * Encodes a string by encoding each indiviudal code point
 	 * 
 	 * @param input The string to be encoded
 	 * @return The encoding of that string
 	 */
 	public String encodeString(String input){
 		
-		String ret = "";
+		StringBuilder ret = new StringBuilder();
+		Codes codes = codes();
 		
-		for (int i=0; i<input.length(); i++)
+		for (int i=0; i<input.length(); i+=Character.charCount(input.codePointAt(i)))
 		{
-			ret = ret.concat(encodeCharacter(input.charAt(i)));
+			ret.append(encodeCodePoint(codes, input.codePointAt(i)));
 		}
-		return ret;
+		return ret.toString();
 	}
 	
 	/**
-	 * Decodes a string by decoding each substring 
+	 * Decodes a string by walking the tree one 0 or 1 at a time. Any other character is
+	 * passed through and drops the partial code before it
 	 * 
 	 * @param input The string of 0's and 1's
 	 * @return The decoding of that string
 	 */
 	public String decodeString(String input){
 		
-		// i and j are pointers to the string and point to the beginning and ending of substrings respectively
-		int i = 0;
-		int j = 0;
-		String ret = "";
-		while (j < input.length()+1)
+		StringBuilder ret = new StringBuilder();
+		Tree structure = codes().structure;
+		//the node the current code has reached, NONE before the code's leading root 0
+		int here = Tree.NONE;
+		//set when the current code can no longer match, until the next invalid character
+		boolean lost = false;
+		//the bits of an escaped code point read so far, and how many are left to read
+		int literal = 0;
+		int literalLeft = 0;
+		
+		for (int i=0; i<input.length(); i++)
 		{
-			//if we reach a character in the input string is not a 0 or 1
-			if (j >0 && input.charAt(j-1) != '1' && input.charAt(j-1)!='0')
+			char c = input.charAt(i);
+			
+			//if we reach a character in the input string is not a 0 or 1 return that character
+			if (c!='0' && c!='1')
+			{
+				ret.append(c);
+				here = Tree.NONE;
+				lost = false;
+				literalLeft = 0;
+			}
+			//after the escape come the bits of the character itself
+			else if (literalLeft>0)
 			{
-					//move the pointers past the invalid character
-					i = j;
-					//and return that character
-					ret = ret.concat(String.valueOf(input.charAt(j-1)));
+				literal = literal<<1 | (c-'0');
+				literalLeft--;
+				if (literalLeft==0 && Character.isValidCodePoint(literal))
+				{
+					ret.appendCodePoint(literal);
+				}
 			}
-			//if the decoder contains the substring return the approriate character
-			if (decoder.containsKey(input.substring(i, j)))
+			else if (!lost)
 			{
-				ret = ret.concat(String.valueOf(decoder.get(input.substring(i,j))));
-				//move the pointers past that substring
-				i = j;
+				//every encoding starts at the root with a 0
+				if (here==Tree.NONE)
+				{
+					lost = c=='1' || structure==null;
+					here = lost ? Tree.NONE : structure.root;
+				}
+				else
+				{
+					here = structure.child(here, c-'0');
+				}
+				//if we've reached a leaf return its character and start the next code
+				if (here!=Tree.NONE && structure.isLeaf(here))
+				{
+					if (structure.symbol[here]==DecodeTable.ESCAPE)
+					{
+						literal = 0;
+						literalLeft = DecodeTable.LITERAL_BITS;
+					}
+					else
+					{
+						ret.appendCodePoint(structure.symbol[here]);
+					}
+					here = Tree.NONE;
+				}
 			}
-			else j++;
 		}
-		return ret;
+		return ret.toString();
 	}
 	
 	/**
-	 * Represents a node in the Huffman tree
+	 * Encodes a string into packed bits, eight code bits to a byte
 	 * 
-	 * @author Jason Malia
+	 * @param input The characters to be encoded
+	 * @return The encoding of the characters and its exact length in bits
+	 * @throws IllegalArgumentException if a character has no encoding and there is no escape
 	 */
-	
-	private static class Node implements Comparable
+	public PackedBits encodeToBytes(CharSequence input)
 	{
-		private Character c;
-		private Integer f;
-		private Node right;
-		private Node left;
-		private int id;
+		BitWriter out = new BitWriter(input.length()/2);
+		Codes codes = codes();
 		
-		/**
-		 * Constructs a node that wraps a character or is part of the tree which holds
-		 * characters 
-		 * 
-		 * @param c The character, or null if it does hold a character
-		 * @param f The frequency of the character, or of its children
-		 * @param id The order the node was added to the priority queue
-		 */
-
-		public Node(Character c, Integer f, int id)
+		for (int i=0; i<input.length(); i+=writeCodePoint(codes, out, input, i))
 		{
-			this.c = c;
-			this.f = f;
-			this.id = id;
 		}
-		/**
-		 * Compares nodes based on frequency and if the frequency is the same
-		 * their 'id', the order they were added to the priority queue
-		 * 
-		 * @param node - The node being compared with.
-		 */
-		@Override
-		public int compareTo(Object node) {
-			
-			Node tht;
-			
-			if (node instanceof Node)
+		//the unused low bits of the last byte are left as 0
+		long bitLength = out.finish();
+		return new PackedBits(out.toByteArray(), bitLength);
+	}
+	
+	/**
+	 * Writes the packed code of the code point at an index of the input, or the escape
+	 * followed by the code point's 21 bits when it has no code of its own
+	 * 
+	 * @param codes The codes to write with
+	 * @param out Where the bits go
+	 * @param input The characters being encoded
+	 * @param i The index of the code point
+	 * @return the number of chars the code point takes up
+	 * @throws IllegalArgumentException if the code point has no encoding and there is no escape
+	 */
+	private static int writeCodePoint(Codes codes, BitWriter out, CharSequence input, int i)
+	{
+		int c = Character.codePointAt(input, i);
+		writeSymbol(codes, out, c, i);
+		return Character.charCount(c);
+	}
+	
+	/**
+	 * Writes the packed code of a symbol, or the escape and the symbol's literal
+	 * 
+	 * @param codes The codes to encode with
+	 * @param out The writer of the bits
+	 * @param c The symbol
+	 * @param i The index of the symbol in the input, for the error message
+	 * @throws IllegalArgumentException if the symbol has no encoding and there is no escape
+	 */
+	private static void writeSymbol(Codes codes, BitWriter out, int c, int i)
+	{
+		long packed = codes.packedCodes.get(c);
+		long escapeCode = codes.escapeCode;
+		
+		if (packed==0)
+		{
+			if (escapeCode==0)
 			{
-				tht = (Node)node;
+				throw new IllegalArgumentException("code point U+"+Integer.toHexString(c).toUpperCase()+" at index "+i+" has no encoding");
 			}
-			else 
+			out.writeBits(escapeCode>>>8, (int)(escapeCode & 0xFF));
+			out.writeBits(c, DecodeTable.LITERAL_BITS);
+		}
+		else
+		{
+			out.writeBits(packed>>>8, (int)(packed & 0xFF));
+		}
+	}
+	
+	/**
+	 * Encodes part of a character sequence into a bit writer, for the stream adapters
+	 * 
+	 * @param input The characters
+	 * @param from The index of the first character
+	 * @param to The index after the last character
+	 * @param out The writer of the bits
+	 * @throws IllegalArgumentException if a character has no encoding and there is no escape
+	 */
+	void encode(CharSequence input, int from, int to, BitWriter out)
+	{
+		Codes codes = codes();
+		for (int i=from; i<to; i+=writeCodePoint(codes, out, input, i))
+		{
+		}
+	}
+	
+	/**
+	 * Encodes bytes into a bit writer as the symbols 0 to 255, the characters of
+	 * ISO 8859-1, for the stream adapters
+	 * 
+	 * @param input The bytes
+	 * @param from The index of the first byte
+	 * @param to The index after the last byte
+	 * @param out The writer of the bits
+	 * @throws IllegalArgumentException if a byte has no encoding and there is no escape
+	 */
+	void encode(byte[] input, int from, int to, BitWriter out)
+	{
+		Codes codes = codes();
+		for (int i=from; i<to; i++)
+		{
+			writeSymbol(codes, out, input[i] & 0xFF, i);
+		}
+	}
+	
+	/**
+	 * Decodes bits encoded by encode, for the stream adapters
+	 * 
+	 * @param in The reader of the bits
+	 * @param bitLength The number of bits
+	 * @return the characters
+	 * @throws IllegalArgumentException if an escape is followed by an invalid code point
+	 */
+	String decode(BitReader in, long bitLength)
+	{
+		Codes codes = codes();
+		return codes.structure==null ? "" : codes.table.decode(in, bitLength);
+	}
+	
+	/**
+	 * Returns an Encoder/Decoder with the codes in use now, which stay the same whatever
+	 * this one observes after, so what either encodes stays decodable by the other. It
+	 * has no frequency data of its own and cannot observe
+	 * 
+	 * @return the Encoder/Decoder
+	 */
+	public HuffmanEncoderDecoder frozen()
+	{
+		Codes codes = codes();
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder(new Histogram(), new Builder());
+		hed.codes = codes;
+		hed.fixedCodes = true;
+		return hed;
+	}
+	
+	/**
+	 * Decodes packed bits produced by encodeToBytes
+	 * 
+	 * @param packed The packed bits
+	 * @return The decoding of those bits
+	 */
+	public String decodeFromBytes(PackedBits packed)
+	{
+		return decodeFromBytes(packed.getBytes(), packed.getBitLength());
+	}
+	
+	/**
+	 * Decodes packed bits through the lookup table built from the tree. A partial code
+	 * at the end of the bits is dropped, as decodeString does
+	 * 
+	 * @param data The bytes holding the bits, most significant bit first
+	 * @param bitLength The number of bits in use
+	 * @return The decoding of those bits
+	 * @throws IllegalArgumentException if the bits hold something that is not a code
+	 */
+	public String decodeFromBytes(byte[] data, long bitLength)
+	{
+		if (bitLength<0 || bitLength>data.length*8L)
+		{
+			throw new IllegalArgumentException("bit length "+bitLength+" does not fit in "+data.length+" bytes");
+		}
+		Codes codes = codes();
+		if (codes.structure==null)
+		{
+			return "";
+		}
+		return codes.table.decode(new BitReader(data), bitLength);
+	}
+	
+	/**
+	 * Encodes a string into four independent streams of packed bits, so they can be decoded
+	 * side by side. The code points are split into four runs of equal length, the last one
+	 * shorter if need be, and each run is packed into its own stream, padded to a whole
+	 * byte. The streams follow a jump table of four big-endian ints: the number of
+	 * code points and the byte lengths of the first three streams
+	 * 
+	 * @param input The characters to be encoded
+	 * @return The jump table followed by the four streams
+	 * @throws IllegalArgumentException if a character has no encoding and there is no escape
+	 */
+	public byte[] encodeInterleaved(CharSequence input)
+	{
+		int length = Character.codePointCount(input, 0, input.length());
+		int run = (length+STREAMS-1)/STREAMS;
+		byte[][] streams = new byte[STREAMS][];
+		int total = 4*STREAMS;
+		int i = 0;
+		Codes codes = codes();
+		
+		for (int s=0; s<STREAMS; s++)
+		{
+			BitWriter out = new BitWriter(run/2);
+			int end = Math.min(length, (s+1)*run);
+			for (int k=s*run; k<end; k++)
 			{
-				return 1;
-			}	
-			
-			if (this.f.equals(tht.f))
+				i += writeCodePoint(codes, out, input, i);
+			}
+			out.finish();
+			streams[s] = out.toByteArray();
+			total += streams[s].length;
+		}
+		
+		ByteBuffer ret = ByteBuffer.allocate(total);
+		ret.putInt(length);
+		for (int s=0; s<STREAMS-1; s++)
+		{
+			ret.putInt(streams[s].length);
+		}
+		for (byte[] stream: streams)
+		{
+			ret.put(stream);
+		}
+		return ret.array();
+	}
+	
+	/**
+	 * Decodes the four streams written by encodeInterleaved. Each pass of the decode loop
+	 * decodes one character from every stream; the four lookups do not depend on each
+	 * other, so the processor can overlap them
+	 * 
+	 * @param data The jump table followed by the four streams
+	 * @return The decoding of the streams
+	 * @throws IllegalArgumentException if the jump table does not match the data or the
+	 * streams hold something that is not a code
+	 */
+	public String decodeInterleaved(byte[] data)
+	{
+		ByteBuffer header = ByteBuffer.wrap(data);
+		if (data.length<4*STREAMS)
+		{
+			throw new IllegalArgumentException("missing jump table");
+		}
+		int length = header.getInt();
+		int run = (int)((length+(long)STREAMS-1)/STREAMS);
+		int[] offsets = new int[STREAMS+1];
+		offsets[0] = 4*STREAMS;
+		for (int s=1; s<STREAMS; s++)
+		{
+			offsets[s] = offsets[s-1]+header.getInt();
+		}
+		offsets[STREAMS] = data.length;
+		for (int s=0; s<STREAMS; s++)
+		{
+			if (offsets[s+1]<offsets[s] || offsets[s+1]>data.length)
+			{
+				throw new IllegalArgumentException("jump table does not match the data");
+			}
+		}
+		Codes codes = codes();
+		//every code point takes at least a bit, so the length is checked before it is allocated
+		if (length<0 || (length>0 && codes.structure==null) || length>8L*(data.length-4*STREAMS))
+		{
+			throw new IllegalArgumentException("invalid length "+length);
+		}
+		
+		int[] out = new int[length];
+		if (length>0)
+		{
+			codes.table.decodeInterleaved(data, offsets, out, run);
+		}
+		return new String(out, 0, length);
+	}
+	
+	/**
+	 * Returns how much longer encodings are estimated to get because the codes were
+	 * trained on a sample of the frequency data rather than all of it. The estimate
+	 * trains on half the sampled chunks and encodes the other half, both ways round, so
+	 * it errs on the high side
+	 * 
+	 * @return the extra bits as a fraction of the bits with codes trained on all the
+	 * frequency data, or 0 if it was not sampled
+	 */
+	public double getEstimatedSamplingLoss()
+	{
+		return samplingLoss;
+	}
+	
+	/**
+	 * Returns the bits per character the codes took on the texts Builder.train held out
+	 * from training, which is what to expect of texts like the ones trained on. A
+	 * supplementary character counts once, and the padding of each encoding to a whole
+	 * byte is left out
+	 * 
+	 * @return the bits per character, or NaN if the codes were not built by train
+	 */
+	public double getHeldOutBitsPerCharacter()
+	{
+		return heldOutBitsPerCharacter;
+	}
+	
+	/**
+	 * Returns whether the codes are canonical, so getCodeLengths describes them completely
+	 * 
+	 * @return true if the codes were assigned canonically
+	 */
+	public boolean isCanonical()
+	{
+		return codes().canonical;
+	}
+	
+	/**
+	 * Returns the code lengths of the canonical codes, all a receiver needs to rebuild them
+	 * with fromCodeLengths. The lengths are written as the number of characters followed by,
+	 * in character order, the gap from the previous character and the code length, each a
+	 * Varint. The escape comes last, as the character after the last Unicode code point
+	 * 
+	 * @return the code lengths
+	 * @throws IllegalStateException if the codes are not canonical
+	 */
+	public byte[] getCodeLengths()
+	{
+		Codes codes = codes();
+		if (!codes.canonical)
+		{
+			throw new IllegalStateException("only canonical codes are described by their lengths");
+		}
+		long[] lengths = codes.getCodeLengths();
+		byte[] out = new byte[(2*lengths.length+1)*Varint.MAX_BYTES];
+		int n = Varint.put(out, 0, lengths.length);
+		int previous = -1;
+		
+		for (long entry: lengths)
+		{
+			int c = (int)(entry>>>8);
+			n = Varint.put(out, n, c-previous-1);
+			n = Varint.put(out, n, entry & 0xFF);
+			previous = c;
+		}
+		return Arrays.copyOf(out, n);
+	}
+	
+	/**
+	 * Constructs a canonical Encoder/Decoder from the code lengths written by getCodeLengths.
+	 * It has no frequency data, so getFrequencyForCharacter returns 0 for every character
+	 * and it cannot observe
+	 * 
+	 * @param codeLengths The code lengths
+	 * @return The Encoder/Decoder for those codes
+	 * @throws IllegalArgumentException if the code lengths do not describe a complete code
+	 */
+	public static HuffmanEncoderDecoder fromCodeLengths(byte[] codeLengths)
+	{
+		int[] pos = new int[1];
+		long count = Varint.get(codeLengths, pos);
+		if (count<0)
+		{
+			throw new IllegalArgumentException("invalid number of code lengths");
+		}
+		//every entry takes at least 2 bytes, so this bounds the arrays before count is checked
+		int[] symbols = new int[(int)Math.min(count, codeLengths.length/2)];
+		int[] lengths = new int[symbols.length];
+		int previous = -1;
+		//the codes are complete when the lengths fill the code space of 56 bits exactly
+		long space = 0;
+		
+		for (long i=0; i<count; i++)
+		{
+			//the gap is checked before it is added, so a huge one cannot wrap around
+			long gap = Varint.get(codeLengths, pos);
+			long c = gap<0 || gap>DecodeTable.ESCAPE-previous-1 ? DecodeTable.ESCAPE+1 : previous+1+gap;
+			long length = Varint.get(codeLengths, pos);
+			if ((c>Character.MAX_CODE_POINT && c!=DecodeTable.ESCAPE) || length<1 || length>CodeLengths.MAX_LENGTH || space>1L<<56 || i>=symbols.length)
+			{
+				throw new IllegalArgumentException("invalid code length "+length+" for character "+c);
+			}
+			symbols[(int)i] = (int)c;
+			lengths[(int)i] = (int)length;
+			space += 1L<<(56-length);
+			previous = (int)c;
+		}
+		if (pos[0]!=codeLengths.length || (count>1 && space!=1L<<56))
+		{
+			throw new IllegalArgumentException("code lengths do not describe a complete code");
+		}
+		
+		boolean escape = count!=0 && symbols[symbols.length-1]==DecodeTable.ESCAPE;
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder(new Histogram(), new Builder().canonical(true).escape(escape));
+		hed.codes = new Codes(symbols, lengths, hed.multiSymbolDecoding);
+		hed.fixedCodes = true;
+		return hed;
+	}
+	
+	/**
+	 * Builds an Encoder/Decoder with options the constructor does not take
+	 * 
+	 * @author Jason Malia
+	 */
+	
+	public static class Builder
+	{
+		private boolean canonical;
+		private int maxCodeLength;
+		private boolean multiSymbolDecoding;
+		private boolean escape;
+		private int sampleChunks;
+		private int sampleChunkLength;
+		private long rebuildSymbols;
+		private double rebuildGain;
+		private long normalizedTotal;
+		private long escapeFrequency = 1;
+		private int heldOutEvery = HELD_OUT_EVERY;
+		
+		/**
+		 * Sets whether codes are reassigned canonically from the code lengths of the tree,
+		 * so they no longer depend on the order characters were added to the tree and can
+		 * be shipped as getCodeLengths
+		 * 
+		 * @param canonical true for canonical codes
+		 * @return this builder
+		 */
+		public Builder canonical(boolean canonical)
+		{
+			this.canonical = canonical;
+			return this;
+		}
+		
+		/**
+		 * Limits how long a code can get, so skewed frequency data cannot make deep codes
+		 * and large decode tables. When the tree is deeper than the limit the lengths are
+		 * recomputed with package-merge, the best codes within the limit. Limited codes
+		 * are always canonical
+		 * 
+		 * @param maxCodeLength The longest code allowed in bits, up to 56, or 0 for no limit
+		 * @return this builder
+		 * @throws IllegalArgumentException if the limit is out of range
+		 */
+		public Builder maxCodeLength(int maxCodeLength)
+		{
+			if (maxCodeLength<0 || maxCodeLength>CodeLengths.MAX_LENGTH)
+			{
+				throw new IllegalArgumentException("max code length must be between 0 and "+CodeLengths.MAX_LENGTH);
+			}
+			this.maxCodeLength = maxCodeLength;
+			return this;
+		}
+		
+		/**
+		 * Sets whether decodeFromBytes decodes every code that fits in a table lookup's bits
+		 * at once, up to three, rather than one code per lookup. This pays off when most
+		 * codes are a few bits long, as with text, at the cost of a table of 8 kilobytes
+		 * 
+		 * @param multiSymbolDecoding true to decode several codes per lookup
+		 * @return this builder
+		 */
+		public Builder multiSymbolDecoding(boolean multiSymbolDecoding)
+		{
+			this.multiSymbolDecoding = multiSymbolDecoding;
+			return this;
+		}
+		
+		/**
+		 * Sets whether the tree gets an escape code, so characters missing from the frequency
+		 * data are encoded as the escape followed by the code point's 21 bits rather than
+		 * passed through as they are. Every character then encodes to 0's and 1's, and
+		 * encodeToBytes accepts any input
+		 * 
+		 * @param escape true to add the escape
+		 * @return this builder
+		 */
+		public Builder escape(boolean escape)
+		{
+			this.escape = escape;
+			return this;
+		}
+		
+		/**
+		 * Sets the frequency the escape gets in the tree, by default 1, which makes it one
+		 * of the longest codes. When characters missing from the frequency data are common,
+		 * a frequency closer to how often they turn up gives the escape a shorter code
+		 * 
+		 * @param frequency The frequency of the escape
+		 * @return this builder
+		 * @throws IllegalArgumentException if the frequency is not positive
+		 */
+		public Builder escapeFrequency(long frequency)
+		{
+			if (frequency<1)
+			{
+				throw new IllegalArgumentException("escape frequency must be at least 1");
+			}
+			this.escapeFrequency = frequency;
+			return this;
+		}
+		
+		/**
+		 * Sets how many of the texts passed to train are held out from training to measure
+		 * the codes with: one in every so many, 10 by default
+		 * 
+		 * @param every The number of texts for each one held out, at least 2
+		 * @return this builder
+		 * @throws IllegalArgumentException if every is less than 2
+		 */
+		public Builder heldOut(int every)
+		{
+			if (every<2)
+			{
+				throw new IllegalArgumentException("at least one text in 2 has to be trained on");
+			}
+			this.heldOutEvery = every;
+			return this;
+		}
+		
+		/**
+		 * Sets the codes to be trained on evenly spaced chunks of the frequency data rather
+		 * than all of it, so building from very large data only reads the chunks. Readers,
+		 * streams and sequences of texts, which have to be read through anyway, keep a
+		 * random sample of their chunks instead, in memory for the chunks alone. The
+		 * sampled frequencies are scaled up to the length of the data, and every character
+		 * seen in the sample keeps a frequency of at least 1. Characters the sample misses
+		 * get no code, so sampling goes best with an escape. getEstimatedSamplingLoss
+		 * tells how much the sample costs
+		 * 
+		 * @param chunks The number of chunks, at least 2 so the loss can be estimated from
+		 * one half against the other, or 0 to train on all the data
+		 * @param chunkLength The number of characters in each chunk, or 0 to train on all the data
+		 * @return this builder
+		 * @throws IllegalArgumentException if only one of them is 0, either is negative, or
+		 * there is just one chunk
+		 */
+		public Builder sample(int chunks, int chunkLength)
+		{
+			if (chunks<0 || chunkLength<0 || (chunks==0)!=(chunkLength==0))
+			{
+				throw new IllegalArgumentException("a sample needs a positive number of chunks and chunk length");
+			}
+			if (chunks==1)
+			{
+				throw new IllegalArgumentException("a sample needs at least 2 chunks");
+			}
+			this.sampleChunks = chunks;
+			this.sampleChunkLength = chunkLength;
+			return this;
+		}
+		
+		/**
+		 * Sets when characters passed to observe get into the codes. The codes are rebuilt
+		 * by the next encode or decode once enough characters have been observed since they
+		 * were last built, and, if a gain is given, once new codes are estimated to encode
+		 * the frequency data that much shorter. The gain is estimated every time enough
+		 * characters have been observed, which takes about as long as building the codes.
+		 * Without an escape, a character the codes do not have could not be encoded, so
+		 * observing one gets the codes rebuilt by the next encode or decode whatever the
+		 * policy. By default the codes are rebuilt after every observation
+		 * 
+		 * @param symbols The number of characters observed before the codes are rebuilt
+		 * @param gain The smallest gain worth rebuilding for, as a fraction of the bits with
+		 * the codes in use, or 0 to rebuild whatever the gain
+		 * @return this builder
+		 * @throws IllegalArgumentException if either is negative
+		 */
+		public Builder rebuildPolicy(long symbols, double gain)
+		{
+			if (symbols<0 || !(gain>=0))
+			{
+				throw new IllegalArgumentException("rebuild policy needs a number of characters and a gain of at least 0");
+			}
+			this.rebuildSymbols = symbols;
+			this.rebuildGain = gain;
+			return this;
+		}
+		
+		/**
+		 * Sets a total the frequency data is scaled to every time the codes are built, as
+		 * Histogram.scaled does. The frequency data then stays bounded however much is
+		 * observed, and characters observed since the last build weigh more than older ones,
+		 * so the codes follow data whose frequencies drift. By default the frequency data is
+		 * kept as counted
+		 * 
+		 * @param total The total to scale to, or 0 to keep the counts
+		 * @return this builder
+		 * @throws IllegalArgumentException if the total is negative
+		 */
+		public Builder normalize(long total)
+		{
+			if (total<0)
+			{
+				throw new IllegalArgumentException("normalized total must be at least 0");
+			}
+			this.normalizedTotal = total;
+			return this;
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder
+		 * 
+		 * @param frequencyData A string that is used to generate the frequency data of characters used
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 */
+		public HuffmanEncoderDecoder build(String frequencyData)
+		{
+			//a sample as long as the data is the data
+			if (sampleChunks==0 || (long)sampleChunks*sampleChunkLength>=frequencyData.length())
+			{
+				//counts each character of the frequency data, split between threads when it is long
+				return new HuffmanEncoderDecoder(Histogram.of(frequencyData), this, frequencyData);
+			}
+			
+			return build(Histogram.sample(frequencyData, sampleChunks, sampleChunkLength), frequencyData.length());
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from the characters of a reader, read a buffer at a time
+		 * so the frequency data never has to fit in memory. The reader is read to the end
+		 * but not closed
+		 * 
+		 * @param frequencyData The reader of the frequency data
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 * @throws UncheckedIOException if the reader fails
+		 */
+		public HuffmanEncoderDecoder build(Reader frequencyData)
+		{
+			try
+			{
+				if (sampleChunks==0)
+				{
+					return new HuffmanEncoderDecoder(Histogram.of(frequencyData), this);
+				}
+				long[] length = new long[1];
+				return build(Histogram.sample(frequencyData, sampleChunks, sampleChunkLength, length), length[0]);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from the characters of a stream. The stream is read to
+		 * the end but not closed
+		 * 
+		 * @param frequencyData The stream of frequency data
+		 * @param charset The charset of the stream
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 * @throws UncheckedIOException if the stream fails
+		 */
+		public HuffmanEncoderDecoder build(InputStream frequencyData, Charset charset)
+		{
+			return build(new InputStreamReader(frequencyData, charset));
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from the characters of a UTF-8 file
+		 * 
+		 * @param frequencyData The file of frequency data
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 * @throws UncheckedIOException if reading the file fails
+		 */
+		public HuffmanEncoderDecoder build(Path frequencyData)
+		{
+			return build(frequencyData, StandardCharsets.UTF_8);
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from the characters of a file. When sampling a file in
+		 * UTF-8 or a charset of one byte per character, only the chunks are read
+		 * 
+		 * @param frequencyData The file of frequency data
+		 * @param charset The charset of the file
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 * @throws UncheckedIOException if reading the file fails
+		 */
+		public HuffmanEncoderDecoder build(Path frequencyData, Charset charset)
+		{
+			try (FileChannel channel = FileChannel.open(frequencyData))
+			{
+				if (sampleChunks!=0)
+				{
+					long[] length = new long[1];
+					Histogram[] halves = Histogram.sample(channel, charset, sampleChunks, sampleChunkLength, length);
+					if (halves!=null)
+					{
+						return build(halves, length[0]);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			
+			try (Reader in = Files.newBufferedReader(frequencyData, charset))
+			{
+				return build(in);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from a histogram of the frequency data, such as one
+		 * merged from histograms counted on many machines. The histogram is copied, so it
+		 * can go on changing without changing the codes
+		 * 
+		 * @param frequencyData The histogram of the frequency data
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 */
+		public HuffmanEncoderDecoder build(Histogram frequencyData)
+		{
+			return new HuffmanEncoderDecoder(frequencyData.copy(), this);
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from a sequence of texts, such as the lines of a file or
+		 * the rows of a table, counted one at a time. A surrogate pair split between two
+		 * texts counts as two characters
+		 * 
+		 * @param frequencyData The texts of frequency data
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 */
+		public HuffmanEncoderDecoder build(Iterable<? extends CharSequence> frequencyData)
+		{
+			if (sampleChunks!=0)
+			{
+				long[] length = new long[1];
+				return build(Histogram.sample(frequencyData, sampleChunks, sampleChunkLength, length), length[0]);
+			}
+			Histogram frequencies = new Histogram();
+			for (CharSequence text: frequencyData)
+			{
+				frequencies.count(text, 0, text.length());
+			}
+			return new HuffmanEncoderDecoder(frequencies, this);
+		}
+		
+		/**
+		 * Trains an Encoder/Decoder to share among many short texts, such as messages, each
+		 * encoded on its own. One text in every heldOut is held out, and the rest are
+		 * counted. Characters counted fewer times than a threshold are then left out of the
+		 * codes and encoded through the escape, whose frequency is the total of theirs, and
+		 * the threshold, a power of 2, is the one that encodes the held out texts shortest:
+		 * a rare character costs a long code either way, and leaving it to the escape
+		 * shortens the codes of the characters the training texts had but the held out
+		 * ones do not. The codes always have an escape, so any text can be encoded, and
+		 * getHeldOutBitsPerCharacter tells how well they did on the held out texts.
+		 * With fewer than heldOut texts, nothing is held out and the codes are measured on
+		 * the training texts
+		 * 
+		 * @param texts The texts to train on
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 */
+		public HuffmanEncoderDecoder train(Iterable<? extends CharSequence> texts)
+		{
+			Histogram training = new Histogram();
+			Histogram heldOut = new Histogram();
+			int i = 0;
+			for (CharSequence text: texts)
+			{
+				Histogram histogram = ++i%heldOutEvery==0 ? heldOut : training;
+				histogram.count(text, 0, text.length());
+			}
+			if (heldOut.total()==0)
+			{
+				heldOut = training;
+			}
+			
+			//tries thresholds until every character would be left out
+			long threshold = 1;
+			double bestBits = Double.MAX_VALUE;
+			for (long t=1; t>0; t*=2)
+			{
+				long[] dropped = new long[1];
+				Histogram kept = common(training, t, dropped);
+				double bits = Histogram.bits(kept, Math.max(1, dropped[0]), heldOut);
+				if (bits<bestBits)
+				{
+					bestBits = bits;
+					threshold = t;
+				}
+				if (kept.total()==0)
+				{
+					break;
+				}
+			}
+			
+			long[] dropped = new long[1];
+			Histogram kept = common(training, threshold, dropped);
+			Builder options = copy();
+			options.escape = true;
+			options.escapeFrequency = Math.max(1, dropped[0]);
+			//scaling the frequency data scales the escape with it
+			if (normalizedTotal!=0 && kept.total()!=0)
+			{
+				options.escapeFrequency = Math.max(1, Math.round((double)dropped[0]*normalizedTotal/kept.total()));
+			}
+			HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder(kept, options);
+			long characters = heldOut.total();
+			hed.heldOutBitsPerCharacter = characters==0 ? 0 : bestBits/characters;
+			return hed;
+		}
+		
+		/**
+		 * Returns the characters counted at least a threshold number of times
+		 * 
+		 * @param frequencies The frequency data
+		 * @param threshold The fewest times a character is counted to be kept
+		 * @param dropped Set to the total count of the characters left out
+		 * @return the frequency data of the characters kept
+		 */
+		private static Histogram common(Histogram frequencies, long threshold, long[] dropped)
+		{
+			Histogram kept = new Histogram();
+			for (int c: frequencies.symbols())
+			{
+				long count = frequencies.get(c);
+				if (count>=threshold)
+				{
+					kept.add(c, count);
+				}
+				else
+				{
+					dropped[0] = CodeLengths.sum(dropped[0], count);
+				}
+			}
+			return kept;
+		}
+		
+		/**
+		 * Returns a builder with the same options as this one
+		 * 
+		 * @return the copy
+		 */
+		private Builder copy()
+		{
+			Builder copy = new Builder();
+			copy.canonical = canonical;
+			copy.maxCodeLength = maxCodeLength;
+			copy.multiSymbolDecoding = multiSymbolDecoding;
+			copy.escape = escape;
+			copy.sampleChunks = sampleChunks;
+			copy.sampleChunkLength = sampleChunkLength;
+			copy.rebuildSymbols = rebuildSymbols;
+			copy.rebuildGain = rebuildGain;
+			copy.normalizedTotal = normalizedTotal;
+			copy.escapeFrequency = escapeFrequency;
+			copy.heldOutEvery = heldOutEvery;
+			return copy;
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from the histograms of a sample, estimating what the
+		 * sample costs from how well each half encodes the other
+		 * 
+		 * @param sample The histograms of the even and of the odd numbered chunks, or just
+		 * the histogram of all the data
+		 * @param length The number of chars in all the data
+		 * @return the Encoder/Decoder
+		 */
+		private HuffmanEncoderDecoder build(Histogram[] sample, long length)
+		{
+			if (sample.length==1)
+			{
+				return new HuffmanEncoderDecoder(sample[0], this);
+			}
+			Histogram sampled = new Histogram();
+			sampled.addAll(sample[0]);
+			sampled.addAll(sample[1]);
+			HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder(sampled.scaled(length), this);
+			//data that holds a single chunk leaves a half empty, and is its own sample
+			if (sample[0].total()!=0 && sample[1].total()!=0)
+			{
+				hed.samplingLoss = (Histogram.loss(sample[0], sample[1])+Histogram.loss(sample[1], sample[0]))/2;
+			}
+			return hed;
+		}
+		
+		/**
+		 * Builds the Encoder/Decoder from bytes, each counted as the character with the same
+		 * value from 0 to 255, as in ISO-8859-1
+		 * 
+		 * @param frequencyData The bytes that are used to generate the frequency data
+		 * @return the Encoder/Decoder
+		 * @throws IllegalArgumentException if the max code length cannot hold every character
+		 */
+		public HuffmanEncoderDecoder build(byte[] frequencyData)
+		{
+			return new HuffmanEncoderDecoder(Histogram.ofBytes(frequencyData, 0, frequencyData.length), this);
+		}
+	}
+	
+	/**
+	 * Holds the codes built from the frequency data: the tree, the packed codes, the
+	 * decode table and, once asked for, the string encodings. Codes are never changed once they are in use;
+	 * new frequency data gets new Codes, swapped in whole, so every encode or decode
+	 * works with one set of codes from start to end
+	 * 
+	 * @author Jason Malia
+	 */
+	
+	static class Codes
+	{
+		private Tree structure;
+		//the characters, without the escape, and their packed codes: the code bits shifted
+		//left by 8 and or'ed with the code length
+		private int[] symbols;
+		private long[] codes;
+		//packed codes by code point
+		SymbolTable packedCodes;
+		//decodes packed bits a table lookup at a time
+		DecodeTable table;
+		//the packed code of the escape, or 0 if there is none
+		long escapeCode;
+		//the frequency data the codes were built from
+		private Histogram model;
+		//whether the codes were assigned canonically from their lengths
+		private boolean canonical;
+		//encoder - maps characters to their encoded string, and decoder - maps encoded
+		//strings to their characters, made from the packed codes the first time a string
+		//encoding of a single character is asked for
+		private Map<Integer, String> encoder;
+		private Map<String, Integer> decoder;
+		
+		/**
+		 * Builds the codes for some frequency data
+		 * 
+		 * @param frequencies The frequency data, which is not changed while the codes are built
+		 * @param options The Encoder/Decoder whose options the codes follow
+		 */
+
+		Codes(Histogram frequencies, HuffmanEncoderDecoder options)
+		{
+			model = frequencies;
+			canonical = options.canonical;
+			
+			//the leaves of the tree are the characters in order, then the escape, which is a
+			//leaf without a character
+			int[] symbols = withEscape(options.symbolOrder(frequencies), options.escape);
+			long[] weights = weights(frequencies, symbols, options.escapeFrequency);
+			long[] codes = new long[symbols.length];
+			
+			if (symbols.length!=0)
+			{
+				int[] lengths;
+				if (options.canonical)
+				{
+					//canonical codes only need the lengths of the tree, not the tree itself
+					lengths = CodeLengths.lengths(weights);
+				}
+				else
+				{
+					//create the tree from the merges of the two lightest nodes, found in linear time
+					structure = Tree.fromMerges(symbols, CodeLengths.tree(weights));
+					lengths = new int[symbols.length];
+					codes = packTree(structure, lengths);
+				}
+				
+				//recompute the lengths if the tree is deeper than allowed and assign the codes
+				//canonically. Packed codes hold 56 bits, which counts of 64 bits can outgrow,
+				//so that is the limit even when none was asked for
+				int maxCodeLength = options.maxCodeLength!=0 ? options.maxCodeLength : CodeLengths.MAX_LENGTH;
+				boolean tooLong = Arrays.stream(lengths).max().getAsInt()>maxCodeLength;
+				if (tooLong)
+				{
+					symbols = withEscape(frequencies.symbols(), options.escape);
+					lengths = CodeLengths.limited(weights(frequencies, symbols, options.escapeFrequency), maxCodeLength);
+				}
+				if (options.canonical || tooLong)
+				{
+					canonical = true;
+					codes = setUpCanonicalTree(symbols, lengths);
+				}
+			}
+			setUpPackedCodes(symbols, codes, options.multiSymbolDecoding);
+		}
+		
+		/**
+		 * Builds the canonical codes of the given lengths
+		 * 
+		 * @param symbols The characters, and the escape as DecodeTable.ESCAPE if there is one
+		 * @param lengths The code length of each of them
+		 * @param multiSymbolDecoding Whether the decode table decodes several short codes per lookup
+		 */
+
+		Codes(int[] symbols, int[] lengths, boolean multiSymbolDecoding)
+		{
+			model = new Histogram();
+			canonical = true;
+			long[] codes = symbols.length==0 ? new long[0] : setUpCanonicalTree(symbols, lengths);
+			setUpPackedCodes(symbols, codes, multiSymbolDecoding);
+		}
+		
+		/**
+		 * Returns the symbols with the escape after them, if there is one
+		 */
+		private static int[] withEscape(int[] symbols, boolean escape)
+		{
+			if (!escape)
+			{
+				return symbols;
+			}
+			symbols = Arrays.copyOf(symbols, symbols.length+1);
+			symbols[symbols.length-1] = DecodeTable.ESCAPE;
+			return symbols;
+		}
+		
+		/**
+		 * Returns the frequency of each symbol, the escape's being escapeFrequency
+		 */
+		private static long[] weights(Histogram frequencies, int[] symbols, long escapeFrequency)
+		{
+			long[] weights = new long[symbols.length];
+			for (int i=0; i<symbols.length; i++)
+			{
+				weights[i] = symbols[i]==DecodeTable.ESCAPE ? escapeFrequency : frequencies.get(symbols[i]);
+			}
+			return weights;
+		}
+		
+		/**
+		 * Returns the packed code of each leaf of a tree made by Tree.fromMerges, whose
+		 * leaves are its first nodes. Every node is made after its children, so going down
+		 * from the root, the last node, reaches each node after its parent. The packed codes
+		 * leave out the root's leading 0 of the string encodings, unless the root is the
+		 * only leaf
+		 * 
+		 * @param tree The tree
+		 * @param lengths Where the code length of each leaf goes, which also tells how many
+		 * leaves there are
+		 * @return the packed codes, which are only valid when no length is over 56
+		 */
+		private static long[] packTree(Tree tree, int[] lengths)
+		{
+			int n = lengths.length;
+			long[] codes = new long[n];
+			if (n==1)
+			{
+				lengths[0] = 1;
+				codes[0] = 1;
+				return codes;
+			}
+			long[] bits = new long[2*n-1];
+			int[] depths = new int[2*n-1];
+			for (int node=tree.root; node>=n; node--)
+			{
+				for (int bit=0; bit<2; bit++)
+				{
+					int child = tree.child(node, bit);
+					bits[child] = bits[node]<<1 | bit;
+					depths[child] = depths[node]+1;
+				}
+			}
+			for (int i=0; i<n; i++)
+			{
+				lengths[i] = depths[i];
+				codes[i] = bits[i]<<8 | depths[i];
+			}
+			return codes;
+		}
+		
+		/**
+		 * Returns the code length of every character, and of the escape as
+		 * DecodeTable.ESCAPE, in order
+		 * 
+		 * @return the symbols shifted left by 8 and or'ed with their code lengths
+		 */
+		long[] getCodeLengths()
+		{
+			int n = symbols.length;
+			long[] lengths = new long[escapeCode!=0 ? n+1 : n];
+			for (int i=0; i<n; i++)
+			{
+				lengths[i] = (long)symbols[i]<<8 | codes[i] & 0xFF;
+			}
+			if (escapeCode!=0)
+			{
+				lengths[n] = (long)DecodeTable.ESCAPE<<8 | escapeCode & 0xFF;
+			}
+			Arrays.sort(lengths);
+			return lengths;
+		}
+		
+		/**
+		 * Builds the tree for the canonical codes of the given lengths and returns the codes.
+		 * Codes are handed out in order of length and then character, each being the
+		 * previous code plus one shifted left to its length, so the lengths alone determine
+		 * every code
+		 * 
+		 * @param symbols The characters, and the escape as DecodeTable.ESCAPE, which comes
+		 * after every character of its length
+		 * @param lengths The code length of each of them
+		 * @return the packed code of each of them
+		 */
+		private long[] setUpCanonicalTree(int[] symbols, int[] lengths)
+		{
+			int n = symbols.length;
+			long[] codes = new long[n];
+			//sorting length, symbol and index together sorts by length and then symbol
+			long[] order = new long[n];
+			for (int i=0; i<n; i++)
+			{
+				order[i] = (long)lengths[i]<<42 | (long)symbols[i]<<21 | i;
+			}
+			Arrays.sort(order);
+			structure = new Tree(2*n-1);
+			
+			//a single character is the root itself
+			if (n==1)
+			{
+				structure.root = structure.add(symbols[0]);
+				codes[0] = 1;
+				return codes;
+			}
+			
+			structure.root = structure.add(Tree.NONE);
+			long code = 0;
+			int previous = 0;
+			for (long key: order)
+			{
+				int i = (int)key & (1<<21)-1;
+				int length = lengths[i];
+				code <<= length-previous;
+				previous = length;
+				
+				//walk down the bits of the code making the nodes that are not there yet
+				int here = structure.root;
+				for (int bit=length-1; bit>0; bit--)
+				{
+					int next = structure.child(here, (int)(code>>>bit) & 1);
+					if (next==Tree.NONE)
+					{
+						next = structure.add(Tree.NONE);
+						structure.setChild(here, (int)(code>>>bit) & 1, next);
+					}
+					here = next;
+				}
+				structure.setChild(here, (int)code & 1, structure.add(symbols[i]));
+				codes[i] = code<<8 | length;
+				code++;
+			}
+			return codes;
+		}
+		
+		/**
+		 * Keeps the packed codes of the characters and the escape, and builds the table of
+		 * them by character and the decode table
+		 * 
+		 * @param symbols The characters, and the escape as DecodeTable.ESCAPE if there is one
+		 * @param codes The packed code of each of them
+		 * @param multiSymbolDecoding Whether the decode table decodes several short codes per lookup
+		 */
+		private void setUpPackedCodes(int[] symbols, long[] codes, boolean multiSymbolDecoding)
+		{
+			int n = 0;
+			this.symbols = new int[symbols.length];
+			this.codes = new long[symbols.length];
+			for (int i=0; i<symbols.length; i++)
+			{
+				if (symbols[i]==DecodeTable.ESCAPE)
+				{
+					escapeCode = codes[i];
+				}
+				else
+				{
+					this.symbols[n] = symbols[i];
+					this.codes[n++] = codes[i];
+				}
+			}
+			this.symbols = Arrays.copyOf(this.symbols, n);
+			this.codes = Arrays.copyOf(this.codes, n);
+			packedCodes = new SymbolTable(this.symbols, this.codes);
+			table = new DecodeTable(symbols, codes, multiSymbolDecoding);
+		}
+		
+		/**
+		 * Returns the string encoding of a packed code: the root's 0 followed by the code
+		 * bits, or only the 0 when the root is the only leaf
+		 * 
+		 * @param code The packed code
+		 * @return the string of 0's and 1's
+		 */
+		private String toString(long code)
+		{
+			if (structure.isLeaf(structure.root))
+			{
+				return "0";
+			}
+			int length = (int)(code & 0xFF);
+			char[] bits = new char[length+1];
+			bits[0] = '0';
+			for (int i=1; i<=length; i++)
+			{
+				bits[i] = (char)('0'+((code>>>(8+length-i)) & 1));
+			}
+			return new String(bits);
+		}
+		
+		/**
+		 * Returns the string encoding of the escape
+		 * 
+		 * @return the string of 0's and 1's, or null if there is no escape
+		 */
+		String escapeString()
+		{
+			return escapeCode==0 ? null : toString(escapeCode);
+		}
+		
+		/**
+		 * Returns the string encoding of each character, made the first time it is asked for
+		 * 
+		 * @return the string encodings, by character
+		 */
+		synchronized Map<Integer, String> encoder()
+		{
+			setUpMaps();
+			return encoder;
+		}
+		
+		/**
+		 * Returns the character of each string encoding, made the first time it is asked for
+		 * 
+		 * @return the characters, by string encoding
+		 */
+		synchronized Map<String, Integer> decoder()
+		{
+			setUpMaps();
+			return decoder;
+		}
+		
+		/**
+		 * Makes the string encodings of the characters from their packed codes, unless they
+		 * have been made already
+		 */
+		private void setUpMaps()
+		{
+			if (encoder!=null)
 			{
-				return this.id - tht.id;
+				return;
 			}
-			else
+			encoder = new HashMap<Integer, String>();
+			decoder = new HashMap<String, Integer>();
+			for (int i=0; i<symbols.length; i++)
 			{
-				return this.f - tht.f;
+				String code = toString(codes[i]);
+				encoder.put(symbols[i], code);
+				decoder.put(code, symbols[i]);
 			}
 		}
 	}
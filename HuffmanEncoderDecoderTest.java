@@ -0,0 +1,337 @@
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the Encoder/Decoder on what has gone wrong before. Run with assertions enabled
+ * or not; a failure throws an AssertionError either way
+ * 
+ * @author Jason Malia
+ */
+
+class HuffmanEncoderDecoderTest {
+	
+	public static void main(String args[])
+	{
+		interleavedRoundTrip();
+		interleavedLengthOutOfRange();
+		codesOfEarlierVersions();
+		samplingLoss();
+		newCharacterWithoutEscape();
+		codeLengthGapOutOfRange();
+		frozenCodes();
+		incrementalChunks();
+		incrementalPendingBits();
+		channelChunks();
+		channelTrailer();
+		System.out.println("HuffmanEncoderDecoderTest passed");
+	}
+	
+	/**
+	 * Encodes random text of every length up to a few runs into four streams and back
+	 */
+	private static void interleavedRoundTrip()
+	{
+		Random random = new Random(1);
+		String alphabet = "etaoin shrdlu";
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder(alphabet+"eeettaaoo");
+		for (int length=0; length<100; length++)
+		{
+			StringBuilder text = new StringBuilder();
+			for (int i=0; i<length; i++)
+			{
+				text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String decoded = hed.decodeInterleaved(hed.encodeInterleaved(text));
+			check(decoded.equals(text.toString()), "interleaved round trip of "+length+" characters gave \""+decoded+"\"");
+		}
+	}
+	
+	/**
+	 * A jump table claiming more code points than the streams have bits is rejected before
+	 * anything that size is allocated
+	 */
+	private static void interleavedLengthOutOfRange()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder("abcd");
+		ByteBuffer data = ByteBuffer.allocate(20);
+		data.putInt(Integer.MAX_VALUE-16);
+		expectIllegalArgument(() -> hed.decodeInterleaved(data.array()), "a jump table of Integer.MAX_VALUE-16 code points");
+		
+		//one more code point than the 4 bytes of streams have bits for
+		data.putInt(0, 33);
+		expectIllegalArgument(() -> hed.decodeInterleaved(data.array()), "a jump table of 33 code points in 32 bits");
+	}
+	
+	/**
+	 * The plain constructor breaks ties between characters of equal frequency the way the
+	 * first versions did, so strings they encoded still decode. The expected encodings
+	 * are what those versions wrote
+	 */
+	private static void codesOfEarlierVersions()
+	{
+		String[][] cases = {
+			{"qqaazz", "0100100110110000"},
+			{"aqbrcs", "0100010101100111000001"},
+			{"hello world", "0011000101001001100111000100110011110100000"}};
+		for (String[] c: cases)
+		{
+			String encoding = new HuffmanEncoderDecoder(c[0]).encodeString(c[0]);
+			check(encoding.equals(c[1]), "\""+c[0]+"\" encodes to "+encoding+" rather than "+c[1]);
+			encoding = new HuffmanEncoderDecoder.Builder().build(c[0]).encodeString(c[0]);
+			check(encoding.equals(c[1]), "the builder encodes \""+c[0]+"\" to "+encoding+" rather than "+c[1]);
+			check(new HuffmanEncoderDecoder(c[0]).decodeString(c[1]).equals(c[0]), "\""+c[0]+"\" does not decode");
+		}
+	}
+	
+	/**
+	 * The loss is estimated from one half of the sample against the other, so a sample
+	 * needs two chunks, and data too short for a second chunk reports no loss
+	 */
+	private static void samplingLoss()
+	{
+		expectIllegalArgument(() -> new HuffmanEncoderDecoder.Builder().sample(1, 1000), "a sample of 1 chunk");
+		
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(2);
+		for (int i=0; i<100000; i++)
+		{
+			text.append((char)('a'+Long.numberOfTrailingZeros(random.nextLong()|1L<<20)));
+		}
+		double loss = new HuffmanEncoderDecoder.Builder().escape(true).sample(16, 1000).build(text.toString()).getEstimatedSamplingLoss();
+		check(loss>=0 && loss<0.05, "sampling loss "+loss+" on data the sample matches");
+		
+		loss = new HuffmanEncoderDecoder.Builder().escape(true).sample(16, 1000).build(new StringReader(text.substring(0, 500))).getEstimatedSamplingLoss();
+		check(loss==0, "sampling loss "+loss+" on data of a single chunk");
+	}
+	
+	/**
+	 * Without an escape a new character cannot be encoded until the codes are rebuilt,
+	 * so observing one rebuilds them however few characters the policy waits for, while
+	 * characters the codes have wait for the policy
+	 */
+	private static void newCharacterWithoutEscape()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder.Builder().rebuildPolicy(100, 0).build("abc");
+		HuffmanEncoderDecoder.Codes codes = hed.codes();
+		hed.observe("cccc");
+		hed.observe('b', 3);
+		check(hed.codes()==codes, "observing characters the codes have rebuilt them before the policy called for it");
+		hed.observe("zzzz");
+		check(hed.decodeFromBytes(hed.encodeToBytes("zaz")).equals("zaz"), "a character observed after the codes were built does not round trip");
+	}
+	
+	/**
+	 * A gap between characters so large that adding it wraps around to a character
+	 * already listed is rejected, rather than listing that character twice
+	 */
+	private static void codeLengthGapOutOfRange()
+	{
+		byte[] codeLengths = {2, 0, 1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x7F, 1};
+		expectIllegalArgument(() -> HuffmanEncoderDecoder.fromCodeLengths(codeLengths), "a gap of 2^63-1 after character 0");
+		
+		//the largest gap there is room for reaches the escape
+		HuffmanEncoderDecoder hed = HuffmanEncoderDecoder.fromCodeLengths(new byte[]{2, 0, 1, (byte)0xFF, (byte)0xFF, 0x43, 1});
+		check(hed.decodeFromBytes(hed.encodeToBytes("\0x\0")).equals("\0x\0"), "codes of character 0 and the escape do not round trip");
+	}
+	
+	/**
+	 * What was encoded before observing still decodes through the codes frozen when it
+	 * was encoded, and codes that were given rather than counted cannot observe
+	 */
+	private static void frozenCodes()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder("abcabc");
+		HuffmanEncoderDecoder frozen = hed.frozen();
+		PackedBits packed = hed.encodeToBytes("abcabc");
+		String encoding = hed.encodeString("abcabc");
+		hed.observe("dddddddddddddddd");
+		check(!hed.decodeFromBytes(packed).equals("abcabc"), "observing did not rebuild the codes");
+		check(frozen.decodeFromBytes(packed).equals("abcabc"), "frozen codes do not decode what was encoded before observing");
+		check(frozen.decodeString(encoding).equals("abcabc"), "frozen codes do not decode the string encoding from before observing");
+		
+		expectIllegalState(() -> frozen.observe("a"), "observing on frozen codes");
+		HuffmanEncoderDecoder loaded = HuffmanEncoderDecoder.fromCodeLengths(new HuffmanEncoderDecoder.Builder().canonical(true).build("abcabc").getCodeLengths());
+		expectIllegalState(() -> loaded.observe('d', 5), "observing on codes from code lengths");
+		loaded.initializeHuffmanEncoderDecoder();
+		check(loaded.decodeFromBytes(loaded.encodeToBytes("cab")).equals("cab"), "rebuilding codes from code lengths lost them");
+	}
+	
+	/**
+	 * Feeds an encoding in two chunks split before every byte, the second holding the
+	 * padded last byte, and a byte at a time. Some
+	 * splits fall inside a code and, since the text has characters only the escape
+	 * encodes, some inside an escape's 21-bit literal
+	 */
+	private static void incrementalChunks()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder.Builder().escape(true).build("aaaaaaaabbbbccd");
+		String text = "abacada\u00e9b\u20acaa\ud83d\ude00dcba";
+		PackedBits packed = hed.encodeToBytes(text);
+		byte[] bytes = packed.getBytes();
+		long bits = packed.getBitLength();
+		HuffmanIncrementalDecoder decoder = new HuffmanIncrementalDecoder(hed);
+		
+		for (int split=0; split<bytes.length; split++)
+		{
+			decoder.reset();
+			String first = decoder.feed(ByteBuffer.wrap(bytes, 0, split));
+			String second = decoder.feed(ByteBuffer.wrap(bytes, split, bytes.length-split), bits-8L*split);
+			check((first+second).equals(text), "split at byte "+split+" decoded \""+first+"\" and \""+second+"\"");
+			check(decoder.getPendingBits()==0, "split at byte "+split+" left "+decoder.getPendingBits()+" bits pending");
+		}
+		
+		decoder.reset();
+		StringBuilder out = new StringBuilder();
+		for (int i=0; i<bytes.length; i++)
+		{
+			long chunkBits = Math.min(8, bits-8L*i);
+			decoder.feed(ByteBuffer.wrap(bytes, i, 1), chunkBits, out);
+		}
+		check(out.toString().equals(text), "a byte at a time decoded \""+out+"\"");
+		
+		//the escape and the first bits of its literal decode to nothing until the rest come
+		int escape = hed.encodeToBytes("\u00e9").getBytes().length;
+		decoder.reset();
+		check(decoder.feed(ByteBuffer.wrap(hed.encodeToBytes("\u00e9").getBytes(), 0, escape-1)).isEmpty(), "part of an escape decoded to something");
+		check(decoder.getPendingBits()==8*(escape-1), "an escape waiting for its literal counts "+decoder.getPendingBits()+" bits pending rather than "+8*(escape-1));
+	}
+	
+	/**
+	 * At the end of an encoding cut short, the bits of the partial code are pending and
+	 * nothing is made up for them
+	 */
+	private static void incrementalPendingBits()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder("aaaaaaaabbbbccd");
+		PackedBits packed = hed.encodeToBytes("abcd");
+		int last = (int)hed.encodeToBytes("d").getBitLength();
+		HuffmanIncrementalDecoder decoder = new HuffmanIncrementalDecoder(hed);
+		
+		String decoded = decoder.feed(ByteBuffer.wrap(packed.getBytes()), packed.getBitLength()-1);
+		check(decoded.equals("abc"), "an encoding short of a bit decoded \""+decoded+"\"");
+		check(decoder.getPendingBits()==last-1, decoder.getPendingBits()+" bits pending rather than "+(last-1));
+		
+		//fed its exact bit length, the padding of the last byte is left out
+		decoder.reset();
+		decoded = decoder.feed(ByteBuffer.wrap(packed.getBytes()), packed.getBitLength());
+		check(decoded.equals("abcd") && decoder.getPendingBits()==0, "the exact bit length decoded \""+decoded+"\" with "+decoder.getPendingBits()+" bits pending");
+		expectIllegalArgument(() -> decoder.feed(ByteBuffer.wrap(packed.getBytes()), -1), "a negative bit length");
+		expectIllegalArgument(() -> decoder.feed(ByteBuffer.wrap(packed.getBytes()), 8L*packed.getBytes().length+1), "more bits than the chunk holds");
+	}
+	
+	/**
+	 * Decodes a channel encoding fed a few bytes at a time, for chunk sizes that split
+	 * codes and escapes' literals at every offset, into a destination a few bytes long
+	 */
+	private static void channelChunks()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder.Builder().escape(true).build("aaaaaaaabbbbccd");
+		byte[] data = "abacad\u00ffba\u0000aacd\u0080d".getBytes(StandardCharsets.ISO_8859_1);
+		byte[] encoding = channelEncode(hed, data);
+		
+		for (int chunk=1; chunk<=5; chunk++)
+		{
+			HuffmanChannelDecoder decoder = new HuffmanChannelDecoder(hed);
+			ByteBuffer src = ByteBuffer.allocate(encoding.length);
+			ByteBuffer dst = ByteBuffer.allocate(data.length);
+			for (int i=0; i<encoding.length; i+=chunk)
+			{
+				src.put(encoding, i, Math.min(chunk, encoding.length-i));
+				src.flip();
+				boolean end = i+chunk>=encoding.length;
+				//the destination is handed out 3 bytes at a time, so decode also overflows
+				CoderResult result;
+				do
+				{
+					dst.limit(Math.min(dst.position()+3, dst.capacity()));
+					result = decoder.decode(src, dst, end);
+					check(!result.isError(), "chunks of "+chunk+" bytes decoded to "+result);
+				}
+				while (result.isOverflow() && dst.position()<dst.capacity());
+				src.compact();
+			}
+			check(Arrays.equals(Arrays.copyOf(dst.array(), dst.position()), data), "chunks of "+chunk+" bytes decoded different bytes");
+			check(decoder.isFinished(), "chunks of "+chunk+" bytes did not finish the decoding");
+		}
+	}
+	
+	/**
+	 * The byte after the padded last byte tells how many of its bits are codes: 0 for an
+	 * empty encoding, 8 for a full last byte, and anything past 8 is not an encoding
+	 */
+	private static void channelTrailer()
+	{
+		HuffmanEncoderDecoder hed = new HuffmanEncoderDecoder("aaaabbcd");
+		byte[] empty = channelEncode(hed, new byte[0]);
+		check(Arrays.equals(empty, new byte[]{0}), "an empty encoding is "+Arrays.toString(empty));
+		HuffmanChannelDecoder decoder = new HuffmanChannelDecoder(hed);
+		check(decoder.decode(ByteBuffer.wrap(empty), ByteBuffer.allocate(1), true).isUnderflow() && decoder.isFinished(), "an empty encoding did not finish");
+		
+		//'a' has a 1-bit code, so 8 of them fill the last byte
+		byte[] full = channelEncode(hed, "aaaaaaaa".getBytes(StandardCharsets.ISO_8859_1));
+		check(full.length==2 && full[1]==8, "a full last byte is "+Arrays.toString(full));
+		ByteBuffer dst = ByteBuffer.allocate(16);
+		decoder.reset().decode(ByteBuffer.wrap(full), dst, true);
+		check(dst.position()==8 && decoder.isFinished(), "a full last byte decoded to "+dst.position()+" bytes");
+		
+		//short of the end, the last two bytes are held back in case they are the end
+		decoder.reset();
+		ByteBuffer src = ByteBuffer.wrap(full);
+		decoder.decode(src, ByteBuffer.allocate(16), false);
+		check(src.remaining()==2 && !decoder.isFinished(), "the last two bytes were not held back");
+		
+		byte[] corrupt = full.clone();
+		corrupt[1] = 9;
+		check(decoder.reset().decode(ByteBuffer.wrap(corrupt), ByteBuffer.allocate(16), true).isMalformed(), "a trailer of 9 bits was accepted");
+	}
+	
+	/**
+	 * Encodes bytes with a HuffmanChannelEncoder, flush and all
+	 */
+	private static byte[] channelEncode(HuffmanEncoderDecoder hed, byte[] data)
+	{
+		HuffmanChannelEncoder encoder = new HuffmanChannelEncoder(hed);
+		ByteBuffer out = ByteBuffer.allocate(data.length*8+16);
+		check(encoder.encode(ByteBuffer.wrap(data), out, true).isUnderflow(), "the channel encoder did not take all the bytes");
+		check(encoder.flush(out).isUnderflow(), "the channel encoder did not flush");
+		return Arrays.copyOf(out.array(), out.position());
+	}
+	
+	private static void expectIllegalState(Runnable action, String what)
+	{
+		try
+		{
+			action.run();
+		}
+		catch (IllegalStateException e)
+		{
+			return;
+		}
+		throw new AssertionError(what+" was not rejected");
+	}
+	
+	private static void expectIllegalArgument(Runnable action, String what)
+	{
+		try
+		{
+			action.run();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;
+		}
+		throw new AssertionError(what+" was not rejected");
+	}
+	
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+}
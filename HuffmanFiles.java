@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses and decompresses whole files through memory maps, so files of any size
+ * are compressed without being read onto the heap. The files are mapped a region at a
+ * time; compress counts the bytes of the input in one pass over it and builds canonical
+ * codes shared by the whole file, then encodes the input in a second pass, a block at a
+ * time, each block with the shared codes, its own codes or none, whichever is shortest.
+ * 
+ * A compressed file is a container, as Container describes: a header with the shared
+ * code lengths, then blocks that each carry their lengths and a CRC32C, so it can be
+ * checked without decoding it and read back block by block by a HuffmanContainerReader,
+ * then an index of the blocks, so a SeekableHuffmanReader can read any part of it
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanFiles {
+	
+	//the most of a file mapped at once
+	private static final int REGION = 1<<30;
+	//the number of bytes compress puts in a block, which divides REGION
+	private static final int BLOCK_SIZE = 1<<22;
+	
+	private HuffmanFiles()
+	{
+	}
+	
+	/**
+	 * Compresses a file
+	 * 
+	 * @param in The file to compress
+	 * @param out The compressed file, created or replaced
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void compress(Path in, Path out) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+			FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE))
+		{
+			long size = input.size();
+			Histogram frequencies = new Histogram();
+			for (long pos=0; pos<size; pos+=REGION)
+			{
+				frequencies.addAll(Histogram.ofBytes(input.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(REGION, size-pos))));
+			}
+			HuffmanEncoderDecoder shared = size==0 ? null : new HuffmanEncoderDecoder.Builder().canonical(true).build(frequencies);
+			
+			long written = write(output, ByteBuffer.wrap(Container.header(shared)), 0);
+			Container.Index index = new Container.Index(written);
+			ByteBuffer block = ByteBuffer.allocateDirect(Container.maxBlockLength(BLOCK_SIZE));
+			for (long pos=0; pos<size; pos+=REGION)
+			{
+				ByteBuffer src = input.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(REGION, size-pos));
+				while (src.hasRemaining())
+				{
+					ByteBuffer raw = src.slice();
+					raw.limit(Math.min(BLOCK_SIZE, raw.remaining()));
+					src.position(src.position()+raw.remaining());
+					block.clear();
+					Container.writeBlock(raw, shared, block);
+					block.flip();
+					index.add(raw.limit(), block.limit());
+					written += write(output, block, written);
+				}
+			}
+			block.clear();
+			Container.writeEnd(block);
+			block.flip();
+			written += write(output, block, written);
+			write(output, ByteBuffer.wrap(Container.index(index)), written);
+		}
+	}
+	
+	/**
+	 * Decompresses a file written by compress, or any other container
+	 * 
+	 * @param in The compressed file
+	 * @param out The decompressed file, created or replaced
+	 * @throws IOException if a file cannot be read or written, or the compressed file is
+	 * not valid
+	 */
+	public static void decompress(Path in, Path out) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+			FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE))
+		{
+			long size = input.size();
+			ByteBuffer src = input.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(REGION, size));
+			HuffmanEncoderDecoder shared = Container.readHeader(src);
+			long read = 0;
+			long written = 0;
+			ByteBuffer dst = ByteBuffer.allocateDirect(0);
+			while (true)
+			{
+				//a region always holds a whole block unless the file ends first
+				if (src.remaining()<Container.maxBlockLength(Container.MAX_BLOCK_SIZE) && read+src.limit()<size)
+				{
+					read += src.position();
+					src = input.map(FileChannel.MapMode.READ_ONLY, read, Math.min(REGION, size-read));
+				}
+				Container.Block block = Container.readBlock(src);
+				if (block==null)
+				{
+					break;
+				}
+				if (dst.capacity()<block.rawLength)
+				{
+					dst = ByteBuffer.allocateDirect(Math.max(block.rawLength, BLOCK_SIZE));
+				}
+				dst.clear();
+				Container.decode(block, shared, dst);
+				dst.flip();
+				written += write(output, dst, written);
+			}
+		}
+	}
+	
+	/**
+	 * Writes all of a buffer to a file at a position
+	 * 
+	 * @return the number of bytes written
+	 */
+	private static int write(FileChannel out, ByteBuffer src, long position) throws IOException
+	{
+		int length = src.remaining();
+		while (src.hasRemaining())
+		{
+			position += out.write(src, position);
+		}
+		return length;
+	}
+}
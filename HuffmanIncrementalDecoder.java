@@ -0,0 +1,194 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Represent a decoder of packed bits, as encodeToBytes writes them, that is fed the bits
+ * a chunk at a time as they arrive, such as from the frames of a network connection.
+ * Chunks may split a code, or an escape and its literal, anywhere; the bits of a code
+ * that is not complete yet are kept in a 64-bit register until the next chunk completes
+ * it, so every bit is read once and nothing is decoded twice.
+ * 
+ * All the state between chunks is the register, its count and whether an escape is
+ * waiting for its literal, so a decoder per connection costs a few dozen bytes on top of
+ * the codes, which all the decoders of an Encoder/Decoder share
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanIncrementalDecoder {
+	
+	private final HuffmanEncoderDecoder.Codes codes;
+	//the bits not decoded yet, left aligned with 0's after them, and how many there are
+	private long buffer;
+	private int count;
+	//whether an escape has been decoded but not its literal yet
+	private boolean escaped;
+	
+	/**
+	 * Constructs the decoder
+	 * 
+	 * @param codec An Encoder/Decoder with the codes the bits were encoded with, which
+	 * stay the same for this decoder whatever the Encoder/Decoder observes after
+	 */
+
+	public HuffmanIncrementalDecoder(HuffmanEncoderDecoder codec)
+	{
+		codes = codec.codes();
+	}
+	
+	/**
+	 * Decodes a chunk of whole bytes of packed bits
+	 * 
+	 * @param chunk The bits, from its position to its limit; the position is moved to the
+	 * limit
+	 * @return the characters of every code the chunk completes
+	 * @throws IllegalArgumentException if the bits hold something that is not a code, or
+	 * an escape followed by an invalid code point, after which the decoder has to be reset
+	 */
+	public String feed(ByteBuffer chunk)
+	{
+		return feed(chunk, chunk.remaining()*8L);
+	}
+	
+	/**
+	 * Decodes a chunk of packed bits that may end part way through a byte, such as the
+	 * last chunk of an encoding
+	 * 
+	 * @param chunk The bits, from its position, most significant bit first; the position
+	 * is moved past the bytes that hold them
+	 * @param bitLength The number of bits in the chunk
+	 * @return the characters of every code the chunk completes
+	 * @throws IllegalArgumentException if the chunk does not hold that many bits, or the
+	 * bits hold something that is not a code, or an escape followed by an invalid code
+	 * point, after which the decoder has to be reset
+	 */
+	public String feed(ByteBuffer chunk, long bitLength)
+	{
+		StringBuilder out = new StringBuilder((int)Math.max(0, Math.min(bitLength/2, 1<<16)));
+		feed(chunk, bitLength, out);
+		return out.toString();
+	}
+	
+	/**
+	 * Decodes a chunk of packed bits into a StringBuilder, so one builder can take the
+	 * characters of many chunks
+	 * 
+	 * @param chunk The bits, from its position, most significant bit first; the position
+	 * is moved past the bytes that hold them
+	 * @param bitLength The number of bits in the chunk
+	 * @param out Where the characters of every code the chunk completes go
+	 * @throws IllegalArgumentException if the chunk does not hold that many bits, or the
+	 * bits hold something that is not a code, or an escape followed by an invalid code
+	 * point, after which the decoder has to be reset
+	 */
+	public void feed(ByteBuffer chunk, long bitLength, StringBuilder out)
+	{
+		if (bitLength<0 || bitLength>chunk.remaining()*8L)
+		{
+			throw new IllegalArgumentException("bit length "+bitLength+" does not fit in "+chunk.remaining()+" bytes");
+		}
+		DecodeTable table = codes.table;
+		long buffer = this.buffer;
+		int count = this.count;
+		long left = bitLength;
+		
+		try
+		{
+			while (true)
+			{
+				//only the bits of the chunk go in, so the bits past the count stay 0's
+				while (count<=56 && left>0)
+				{
+					int n = (int)Math.min(8, left);
+					buffer |= (long)(chunk.get() & 0xFF & 0xFF<<(8-n))<<(56-count);
+					count += n;
+					left -= n;
+				}
+				
+				if (escaped)
+				{
+					if (count<DecodeTable.LITERAL_BITS)
+					{
+						return;
+					}
+					int literal = (int)(buffer>>>(64-DecodeTable.LITERAL_BITS));
+					if (!Character.isValidCodePoint(literal))
+					{
+						throw new IllegalArgumentException("escape followed by invalid code point "+literal);
+					}
+					out.appendCodePoint(literal);
+					buffer <<= DecodeTable.LITERAL_BITS;
+					count -= DecodeTable.LITERAL_BITS;
+					escaped = false;
+					continue;
+				}
+				if (count==0)
+				{
+					return;
+				}
+				
+				//a code that needs bits past the count is still coming, unless the
+				//register is full and no code is that long
+				int decoded;
+				try
+				{
+					decoded = table.lookup(buffer);
+				}
+				catch (IllegalArgumentException e)
+				{
+					decoded = 0xFF;
+				}
+				int length = decoded & 0xFF;
+				if (length>count)
+				{
+					if (count>56)
+					{
+						throw new IllegalArgumentException("invalid code");
+					}
+					return;
+				}
+				buffer <<= length;
+				count -= length;
+				
+				int symbol = decoded>>>8;
+				if (symbol==DecodeTable.ESCAPE)
+				{
+					escaped = true;
+				}
+				else
+				{
+					out.appendCodePoint(symbol);
+				}
+			}
+		}
+		finally
+		{
+			this.buffer = buffer;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * Returns the number of bits fed that are not decoded yet, the start of a code or of
+	 * an escape's literal, which at the end of an encoding are the partial code that
+	 * decodeFromBytes drops
+	 * 
+	 * @return the number of bits
+	 */
+	public int getPendingBits()
+	{
+		return escaped ? count+(int)(codes.escapeCode & 0xFF) : count;
+	}
+	
+	/**
+	 * Clears the decoder for a new encoding
+	 * 
+	 * @return this decoder
+	 */
+	public HuffmanIncrementalDecoder reset()
+	{
+		buffer = 0;
+		count = 0;
+		escaped = false;
+		return this;
+	}
+}
@@ -0,0 +1,154 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represent an input stream that decodes the bytes a HuffmanOutputStream wrote onto
+ * another stream. A block is read and decoded at a time, so the data never has to fit
+ * in memory
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanInputStream extends FilterInputStream {
+	
+	private final HuffmanEncoderDecoder codec;
+	private final byte[] block = new byte[Blocks.CAPACITY];
+	//the array read() goes through
+	private final byte[] one = new byte[1];
+	//the decoded symbols of the block, and how many of them have been read
+	private String decoded = "";
+	private int pos;
+	
+	/**
+	 * Constructs the stream
+	 * 
+	 * @param in The stream of encoded bytes
+	 * @param codec An Encoder/Decoder with the codes the bytes were encoded with
+	 */
+
+	public HuffmanInputStream(InputStream in, HuffmanEncoderDecoder codec)
+	{
+		super(in);
+		this.codec = codec.frozen();
+	}
+	
+	/**
+	 * Reads a byte
+	 * 
+	 * @return the byte, or -1 at the end of the stream
+	 * @throws IOException if the stream fails or holds invalid data
+	 */
+	@Override
+	public int read() throws IOException
+	{
+		return read(one, 0, 1)<0 ? -1 : one[0] & 0xFF;
+	}
+	
+	/**
+	 * Reads bytes
+	 * 
+	 * @param b The array to read into
+	 * @param off The index to read to
+	 * @param len The most bytes to read
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @throws IOException if the stream fails or holds invalid data
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if ((off | len | b.length-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+b.length);
+		}
+		if (len==0)
+		{
+			return 0;
+		}
+		if (pos==decoded.length() && !readBlock())
+		{
+			return -1;
+		}
+		int n = Math.min(len, decoded.length()-pos);
+		for (int i=0; i<n; i++)
+		{
+			char c = decoded.charAt(pos+i);
+			if (c>0xFF)
+			{
+				throw new IOException("decoded symbol "+(int)c+" is not a byte");
+			}
+			b[off+i] = (byte)c;
+		}
+		pos += n;
+		return n;
+	}
+	
+	/**
+	 * Skips decoded bytes
+	 * 
+	 * @param n The number of bytes to skip
+	 * @return the number of bytes skipped
+	 * @throws IOException if the stream fails or holds invalid data
+	 */
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = 0;
+		while (skipped<n && (pos<decoded.length() || readBlock()))
+		{
+			int step = (int)Math.min(n-skipped, decoded.length()-pos);
+			pos += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+	
+	/**
+	 * Returns the number of decoded bytes that can be read without reading the stream
+	 * 
+	 * @return the bytes left of the block
+	 */
+	@Override
+	public int available()
+	{
+		return decoded.length()-pos;
+	}
+	
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+	}
+	
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		throw new IOException("mark/reset not supported");
+	}
+	
+	/**
+	 * Reads and decodes the next block, skipping any that decode to nothing
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean readBlock() throws IOException
+	{
+		do
+		{
+			long bitLength = Blocks.read(in, block);
+			if (bitLength<0)
+			{
+				return false;
+			}
+			decoded = Blocks.decode(codec, block, bitLength);
+			pos = 0;
+		}
+		while (decoded.isEmpty());
+		return true;
+	}
+}
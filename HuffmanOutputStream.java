@@ -0,0 +1,98 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Represent an output stream that Huffman encodes the bytes written to it, as the
+ * symbols 0 to 255, onto another stream. The bits are written out a block at a time as
+ * they fill up, so the data never has to fit in memory; flush writes out the block so
+ * far. The codes are the ones the Encoder/Decoder has when the stream is constructed,
+ * so a HuffmanInputStream over an Encoder/Decoder with the same codes reads the bytes
+ * back, such as one built by fromCodeLengths from its getCodeLengths
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanOutputStream extends FilterOutputStream {
+	
+	private final HuffmanEncoderDecoder codec;
+	private final byte[] block = new byte[Blocks.CAPACITY];
+	//the array write(int) goes through
+	private final byte[] one = new byte[1];
+	private BitWriter bits = Blocks.writer(block);
+	
+	/**
+	 * Constructs the stream
+	 * 
+	 * @param out The stream to write the encoded bytes to
+	 * @param codec The Encoder/Decoder whose codes encode the bytes, for instance one
+	 * built by the Builder from sample bytes
+	 */
+
+	public HuffmanOutputStream(OutputStream out, HuffmanEncoderDecoder codec)
+	{
+		super(out);
+		this.codec = codec.frozen();
+	}
+	
+	/**
+	 * Encodes a byte
+	 * 
+	 * @param b The byte, in the low 8 bits
+	 * @throws IOException if the stream fails
+	 * @throws IllegalArgumentException if the byte has no encoding and there is no escape
+	 */
+	@Override
+	public void write(int b) throws IOException
+	{
+		one[0] = (byte)b;
+		write(one, 0, 1);
+	}
+	
+	/**
+	 * Encodes bytes
+	 * 
+	 * @param b The bytes
+	 * @param off The index of the first byte
+	 * @param len The number of bytes
+	 * @throws IOException if the stream fails
+	 * @throws IllegalArgumentException if a byte has no encoding and there is no escape
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if ((off | len | b.length-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+b.length);
+		}
+		for (int i=off; i<off+len; i+=Blocks.SLICE)
+		{
+			codec.encode(b, i, Math.min(off+len, i+Blocks.SLICE), bits);
+			if (Blocks.isFull(bits))
+			{
+				writeBlock();
+			}
+		}
+	}
+	
+	/**
+	 * Writes out the bytes encoded so far, padded to a whole byte, and flushes the stream
+	 * 
+	 * @throws IOException if the stream fails
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		writeBlock();
+		out.flush();
+	}
+	
+	/**
+	 * Writes the block out and starts the next one
+	 */
+	private void writeBlock() throws IOException
+	{
+		Blocks.write(out, block, bits);
+		bits = Blocks.writer(block);
+	}
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Represent a reader that decodes the text a HuffmanWriter wrote onto an input stream,
+ * a block at a time, so the text never has to fit in memory
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanReader extends Reader {
+	
+	private final InputStream in;
+	private final HuffmanEncoderDecoder codec;
+	private final byte[] block = new byte[Blocks.CAPACITY];
+	//the decoded characters of the block, and how many of them have been read
+	private String decoded = "";
+	private int pos;
+	private boolean closed;
+	
+	/**
+	 * Constructs the reader
+	 * 
+	 * @param in The stream of encoded text
+	 * @param codec An Encoder/Decoder with the codes the text was encoded with
+	 */
+
+	public HuffmanReader(InputStream in, HuffmanEncoderDecoder codec)
+	{
+		this.in = in;
+		this.codec = codec.frozen();
+	}
+	
+	/**
+	 * Reads characters
+	 * 
+	 * @param cbuf The array to read into
+	 * @param off The index to read to
+	 * @param len The most characters to read
+	 * @return the number of characters read, or -1 at the end of the text
+	 * @throws IOException if the stream fails, holds invalid data or the reader is closed
+	 */
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException
+	{
+		if ((off | len | cbuf.length-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+cbuf.length);
+		}
+		synchronized (lock)
+		{
+			if (closed)
+			{
+				throw new IOException("reader closed");
+			}
+			if (len==0)
+			{
+				return 0;
+			}
+			if (pos==decoded.length() && !readBlock())
+			{
+				return -1;
+			}
+			int n = Math.min(len, decoded.length()-pos);
+			decoded.getChars(pos, pos+n, cbuf, off);
+			pos += n;
+			return n;
+		}
+	}
+	
+	/**
+	 * Returns whether characters can be read without reading the stream
+	 * 
+	 * @return true if some of the block is left
+	 */
+	@Override
+	public boolean ready()
+	{
+		synchronized (lock)
+		{
+			return pos<decoded.length();
+		}
+	}
+	
+	/**
+	 * Closes the stream
+	 * 
+	 * @throws IOException if the stream fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (lock)
+		{
+			closed = true;
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads and decodes the next block, skipping any that decode to nothing
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean readBlock() throws IOException
+	{
+		do
+		{
+			long bitLength = Blocks.read(in, block);
+			if (bitLength<0)
+			{
+				return false;
+			}
+			decoded = Blocks.decode(codec, block, bitLength);
+			pos = 0;
+		}
+		while (decoded.isEmpty());
+		return true;
+	}
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Represent a writer that Huffman encodes the characters written to it onto an output
+ * stream, a block at a time as the bits fill up, so the text never has to fit in
+ * memory. A supplementary character is one symbol even when its surrogates are written
+ * apart; a high surrogate at the end of a write waits for the next one, and is encoded
+ * on its own if the writer is closed first. The codes are the ones the Encoder/Decoder
+ * has when the writer is constructed, and a HuffmanReader reads the text back
+ * 
+ * @author Jason Malia
+ */
+
+public class HuffmanWriter extends Writer {
+	
+	private final OutputStream out;
+	private final HuffmanEncoderDecoder codec;
+	private final byte[] block = new byte[Blocks.CAPACITY];
+	private BitWriter bits = Blocks.writer(block);
+	//a high surrogate waiting for its low surrogate, or 0
+	private char pending;
+	private boolean closed;
+	
+	/**
+	 * Constructs the writer
+	 * 
+	 * @param out The stream to write the encoded text to
+	 * @param codec The Encoder/Decoder whose codes encode the characters
+	 */
+
+	public HuffmanWriter(OutputStream out, HuffmanEncoderDecoder codec)
+	{
+		this.out = out;
+		this.codec = codec.frozen();
+	}
+	
+	/**
+	 * Encodes characters
+	 * 
+	 * @param cbuf The characters
+	 * @param off The index of the first character
+	 * @param len The number of characters
+	 * @throws IOException if the stream fails or the writer is closed
+	 * @throws IllegalArgumentException if a character has no encoding and there is no escape
+	 */
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		if ((off | len | cbuf.length-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+cbuf.length);
+		}
+		synchronized (lock)
+		{
+			encode(CharBuffer.wrap(cbuf), off, off+len);
+		}
+	}
+	
+	/**
+	 * Encodes part of a string
+	 * 
+	 * @param str The string
+	 * @param off The index of the first character
+	 * @param len The number of characters
+	 * @throws IOException if the stream fails or the writer is closed
+	 * @throws IllegalArgumentException if a character has no encoding and there is no escape
+	 */
+	@Override
+	public void write(String str, int off, int len) throws IOException
+	{
+		if ((off | len | str.length()-off-len)<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+str.length());
+		}
+		synchronized (lock)
+		{
+			encode(str, off, off+len);
+		}
+	}
+	
+	/**
+	 * Writes out the characters encoded so far, padded to a whole byte, and flushes the
+	 * stream. A high surrogate at the end keeps waiting for its low surrogate
+	 * 
+	 * @throws IOException if the stream fails or the writer is closed
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		synchronized (lock)
+		{
+			ensureOpen();
+			writeBlock();
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Encodes a waiting high surrogate, writes out the last block and closes the stream
+	 * 
+	 * @throws IOException if the stream fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (lock)
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			try
+			{
+				if (pending!=0)
+				{
+					codec.encode(String.valueOf(pending), 0, 1, bits);
+					pending = 0;
+				}
+				writeBlock();
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+	
+	/**
+	 * Encodes characters, holding back a high surrogate at the end. Slices never end
+	 * between the surrogates of a pair
+	 */
+	private void encode(CharSequence text, int from, int to) throws IOException
+	{
+		ensureOpen();
+		if (from==to)
+		{
+			return;
+		}
+		if (pending!=0)
+		{
+			char[] pair = {pending, text.charAt(from)};
+			pending = 0;
+			if (Character.isLowSurrogate(pair[1]))
+			{
+				codec.encode(CharBuffer.wrap(pair), 0, 2, bits);
+				from++;
+			}
+			else
+			{
+				codec.encode(CharBuffer.wrap(pair), 0, 1, bits);
+			}
+		}
+		if (from<to && Character.isHighSurrogate(text.charAt(to-1)))
+		{
+			pending = text.charAt(--to);
+		}
+		
+		while (from<to)
+		{
+			int end = Math.min(to, from+Blocks.SLICE);
+			if (end<to && Character.isHighSurrogate(text.charAt(end-1)))
+			{
+				end++;
+			}
+			codec.encode(text, from, end, bits);
+			if (Blocks.isFull(bits))
+			{
+				writeBlock();
+			}
+			from = end;
+		}
+	}
+	
+	/**
+	 * Writes the block out and starts the next one
+	 */
+	private void writeBlock() throws IOException
+	{
+		Blocks.write(out, block, bits);
+		bits = Blocks.writer(block);
+	}
+	
+	private void ensureOpen() throws IOException
+	{
+		if (closed)
+		{
+			throw new IOException("writer closed");
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Represent a bit-packed encoding: the encoded bits stored most significant bit
+ * first in a byte array, together with the exact number of bits that are in use
+ * 
+ * @author Jason Malia
+ */
+
+public class PackedBits {
+	
+	private final byte[] bytes;
+	private final long bitLength;
+	
+	/**
+	 * Constructs the packed bits
+	 * 
+	 * @param bytes The bytes holding the bits, the unused bits of the last byte are 0
+	 * @param bitLength The number of bits in use
+	 */
+
+	public PackedBits(byte[] bytes, long bitLength)
+	{
+		if (bitLength < 0 || bitLength > (long)bytes.length*8)
+		{
+			throw new IllegalArgumentException("bit length "+bitLength+" does not fit in "+bytes.length+" bytes");
+		}
+		this.bytes = bytes;
+		this.bitLength = bitLength;
+	}
+	
+	/**
+	 * Returns the bytes holding the bits
+	 * 
+	 * @return the bytes, most significant bit first
+	 */
+	public byte[] getBytes()
+	{
+		return bytes;
+	}
+	
+	/**
+	 * Returns the number of bits in use
+	 * 
+	 * @return the exact bit length of the encoding
+	 */
+	public long getBitLength()
+	{
+		return bitLength;
+	}
+}
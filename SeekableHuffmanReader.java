@@ -0,0 +1,210 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represent random access to the decoded bytes of a container, such as a file written by
+ * HuffmanFiles.compress. The index after the blocks says where each block starts in the
+ * decoded bytes and in the container, so a read decodes only the blocks that hold what
+ * it asks for, and the last block decoded is kept for reads near the one before.
+ * 
+ * A container without an index is indexed when it is opened by reading the start of
+ * each block, which reads a few bytes of each block rather than decoding it
+ * 
+ * @author Jason Malia
+ */
+
+public class SeekableHuffmanReader implements Closeable {
+	
+	private final SeekableByteChannel channel;
+	//the shared codes, or null if the container has none
+	private final HuffmanEncoderDecoder shared;
+	private final Container.Index index;
+	//the last block decoded, and which block it is
+	private byte[] decoded;
+	private int block = -1;
+	
+	/**
+	 * Opens a container file
+	 * 
+	 * @param file The container
+	 * @throws IOException if the file cannot be read or is not a valid container
+	 */
+
+	public SeekableHuffmanReader(Path file) throws IOException
+	{
+		this(Files.newByteChannel(file, StandardOpenOption.READ));
+	}
+	
+	/**
+	 * Reads the header and the index of a container
+	 * 
+	 * @param channel The container, which is closed when this reader is
+	 * @throws IOException if the channel fails or the container is not valid
+	 */
+
+	public SeekableHuffmanReader(SeekableByteChannel channel) throws IOException
+	{
+		this.channel = channel;
+		long size = channel.size();
+		ByteBuffer header = read(0, (int)Math.min(Container.MAX_HEADER, size));
+		shared = Container.readHeader(header);
+		long start = header.position();
+		
+		int indexLength = -1;
+		if (size-start>=Container.FOOTER+1)
+		{
+			indexLength = Container.indexLength(read(size-Container.FOOTER, Container.FOOTER));
+		}
+		if (indexLength<0)
+		{
+			index = scan(start);
+		}
+		else
+		{
+			long end = size-Container.FOOTER-indexLength;
+			if (indexLength==0 || end<=start)
+			{
+				throw new IOException("invalid container index");
+			}
+			index = Container.readIndex(read(end, indexLength), start);
+			//the blocks end with END, right before the index
+			if (index.offsets[index.count]+1!=end || read(end-1, 1).get()!=Container.END)
+			{
+				throw new IOException("container index does not match its blocks");
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes the container decodes to
+	 * 
+	 * @return the number of bytes
+	 */
+	public long size()
+	{
+		return index.rawOffsets[index.count];
+	}
+	
+	/**
+	 * Reads decoded bytes from a position, decoding the blocks that hold them
+	 * 
+	 * @param position The offset in the decoded bytes to read from
+	 * @param b The array to read into
+	 * @param off The index in b of the first byte read
+	 * @param len The most bytes to read
+	 * @return the number of bytes read, less than len only at the end of the decoded
+	 * bytes, or -1 if position is at or past the end
+	 * @throws IOException if the channel fails or a block is not valid
+	 */
+	public int read(long position, byte[] b, int off, int len) throws IOException
+	{
+		if ((off | len | b.length-off-len)<0 || position<0)
+		{
+			throw new IndexOutOfBoundsException("range ["+off+", "+off+"+"+len+") out of bounds for length "+b.length+" at position "+position);
+		}
+		if (position>=size())
+		{
+			return -1;
+		}
+		int read = 0;
+		while (read<len && position<size())
+		{
+			int i = index.find(position);
+			byte[] bytes = decode(i);
+			int from = (int)(position-index.rawOffsets[i]);
+			int n = Math.min(len-read, bytes.length-from);
+			System.arraycopy(bytes, from, b, off+read, n);
+			read += n;
+			position += n;
+		}
+		return read;
+	}
+	
+	/**
+	 * Closes the channel
+	 * 
+	 * @throws IOException if the channel fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+	
+	/**
+	 * Returns the decoded bytes of a block, reading and decoding it unless it is the last
+	 * one decoded
+	 */
+	private byte[] decode(int i) throws IOException
+	{
+		if (i!=block)
+		{
+			long offset = index.offsets[i];
+			Container.Block read = Container.readBlock(read(offset, (int)(index.offsets[i+1]-offset)));
+			long rawLength = index.rawOffsets[i+1]-index.rawOffsets[i];
+			if (read==null || read.rawLength!=rawLength)
+			{
+				throw new IOException("block at byte "+offset+" does not match the container index");
+			}
+			byte[] bytes = new byte[read.rawLength];
+			Container.decode(read, shared, ByteBuffer.wrap(bytes));
+			decoded = bytes;
+			block = i;
+		}
+		return decoded;
+	}
+	
+	/**
+	 * Indexes the blocks of a container that has no index by reading the start of each
+	 */
+	private Container.Index scan(long start) throws IOException
+	{
+		Container.Index index = new Container.Index(start);
+		long size = channel.size();
+		long offset = start;
+		while (true)
+		{
+			ByteBuffer header = read(offset, (int)Math.min(Container.MAX_BLOCK_HEADER, size-offset));
+			Container.Block read;
+			try
+			{
+				read = Container.readBlockHeader(header);
+			}
+			catch (BufferUnderflowException e)
+			{
+				throw new IOException("container ends inside a block", e);
+			}
+			if (read==null)
+			{
+				return index;
+			}
+			index.add(read.rawLength, read.length);
+			offset += read.length;
+		}
+	}
+	
+	/**
+	 * Reads bytes of the channel at an offset
+	 */
+	private ByteBuffer read(long offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		channel.position(offset);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer)<0)
+			{
+				throw new EOFException("container ends early");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
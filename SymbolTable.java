@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+/**
+ * Represent a map from symbols, Unicode code points, to packed codes. The symbols from 0
+ * up to a dense limit index an array directly; the rest, usually a few rare or
+ * supplementary characters, go in an open-addressing hash table with linear probing.
+ * The dense limit reaches as far into the Basic Multilingual Plane as the symbols do,
+ * as long as the array needs no more than DENSITY slots per symbol below it
+ * 
+ * @author Jason Malia
+ */
+
+class SymbolTable {
+	
+	private static final int DENSITY = 16;
+	//the array always covers ASCII
+	private static final int MIN_DENSE = 0x80;
+	private static final int EMPTY = -1;
+	
+	private final long[] dense;
+	private final int[] keys;
+	private final long[] values;
+	private final int shift;
+	
+	/**
+	 * Constructs the table
+	 * 
+	 * @param symbols The symbols
+	 * @param codes The packed code of each symbol, never 0
+	 */
+
+	SymbolTable(int[] symbols, long[] codes)
+	{
+		int[] sorted = symbols.clone();
+		Arrays.sort(sorted);
+		int limit = MIN_DENSE;
+		for (int i=0; i<sorted.length && sorted[i]<=Character.MAX_VALUE; i++)
+		{
+			if (sorted[i]<Math.max(MIN_DENSE, DENSITY*(i+1)))
+			{
+				limit = Math.max(limit, sorted[i]+1);
+			}
+		}
+		dense = new long[limit];
+		
+		int sparse = 0;
+		for (int symbol: symbols)
+		{
+			if (symbol>=limit)
+			{
+				sparse++;
+			}
+		}
+		//at most half full so probes stay short
+		int capacity = Integer.highestOneBit(Math.max(4, sparse*2-1))<<1;
+		keys = new int[capacity];
+		values = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		shift = 32-Integer.numberOfTrailingZeros(capacity);
+		
+		for (int i=0; i<symbols.length; i++)
+		{
+			if (symbols[i]<limit)
+			{
+				dense[symbols[i]] = codes[i];
+			}
+			else
+			{
+				int slot = slot(symbols[i]);
+				while (keys[slot]!=EMPTY)
+				{
+					slot = (slot+1) & (keys.length-1);
+				}
+				keys[slot] = symbols[i];
+				values[slot] = codes[i];
+			}
+		}
+	}
+	
+	/**
+	 * Returns the packed code of a symbol
+	 * 
+	 * @param symbol The symbol
+	 * @return the packed code, or 0 if the symbol has none
+	 */
+	long get(int symbol)
+	{
+		if (symbol<dense.length)
+		{
+			return dense[symbol];
+		}
+		int slot = slot(symbol);
+		while (keys[slot]!=symbol)
+		{
+			if (keys[slot]==EMPTY)
+			{
+				return 0;
+			}
+			slot = (slot+1) & (keys.length-1);
+		}
+		return values[slot];
+	}
+	
+	/**
+	 * Returns the slot the probe for a symbol starts at, from the high bits of a
+	 * Fibonacci hash
+	 */
+	private int slot(int symbol)
+	{
+		return (symbol*0x9E3779B9)>>>shift;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Represent a Huffman tree as parallel arrays indexed by node rather than as linked
+ * objects, so a tree is a few arrays of ints and walking it stays within them. Each
+ * node has a left child, a right child and a symbol, with NONE for what it does not
+ * have; a leaf is a node without children, and only leaves have symbols
+ * 
+ * @author Jason Malia
+ */
+
+class Tree {
+	
+	static final int NONE = -1;
+	
+	final int[] left;
+	final int[] right;
+	final int[] symbol;
+	int root = NONE;
+	private int size;
+	
+	/**
+	 * Constructs an empty tree
+	 * 
+	 * @param capacity The number of nodes the tree can hold
+	 */
+
+	Tree(int capacity)
+	{
+		left = new int[capacity];
+		right = new int[capacity];
+		symbol = new int[capacity];
+	}
+	
+	/**
+	 * Builds the tree made by a series of merges, as returned by CodeLengths.tree
+	 * 
+	 * @param symbols The symbol of each leaf
+	 * @param children The children of the merged nodes: merge k makes node n+k out of
+	 * children[2k] and children[2k+1], where nodes below n are the leaves
+	 * @return the tree, whose root is the last node merged
+	 */
+	static Tree fromMerges(int[] symbols, int[] children)
+	{
+		int n = symbols.length;
+		Tree tree = new Tree(Math.max(0, 2*n-1));
+		for (int i=0; i<n; i++)
+		{
+			tree.add(symbols[i]);
+		}
+		for (int k=0; k<n-1; k++)
+		{
+			int node = tree.add(NONE);
+			tree.setChild(node, 0, children[2*k]);
+			tree.setChild(node, 1, children[2*k+1]);
+		}
+		tree.root = tree.size-1;
+		return tree;
+	}
+	
+	/**
+	 * Adds a node without children
+	 * 
+	 * @param symbol The symbol of a leaf, or NONE
+	 * @return the new node
+	 */
+	int add(int symbol)
+	{
+		int node = size++;
+		left[node] = NONE;
+		right[node] = NONE;
+		this.symbol[node] = symbol;
+		return node;
+	}
+	
+	/**
+	 * Returns a child of a node
+	 * 
+	 * @param node The node
+	 * @param bit 0 for the left child, 1 for the right
+	 * @return the child, or NONE
+	 */
+	int child(int node, int bit)
+	{
+		return bit==0 ? left[node] : right[node];
+	}
+	
+	/**
+	 * Makes a node a child of another
+	 * 
+	 * @param node The parent
+	 * @param bit 0 for the left child, 1 for the right
+	 * @param child The child
+	 */
+	void setChild(int node, int bit, int child)
+	{
+		if (bit==0)
+		{
+			left[node] = child;
+		}
+		else
+		{
+			right[node] = child;
+		}
+	}
+	
+	/**
+	 * Returns whether a node is a leaf
+	 * 
+	 * @param node The node
+	 * @return true if it has no children
+	 */
+	boolean isLeaf(int node)
+	{
+		return left[node]==NONE && right[node]==NONE;
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Represent the variable length numbers of every serialized form: code length tables,
+ * histograms, the framing of the streams and containers. A number is written 7 bits to
+ * a byte, low bits first, with the high bit set on all but the last byte, so a number
+ * below 128 takes one byte and a long at most MAX_BYTES.
+ * 
+ * The readers of arrays and buffers return -1 for a number that does not fit in 63
+ * bits, and callers check the range of what they read and report it their own way.
+ * The reader of streams returns -1 at the end of the stream instead
+ * 
+ * @author Jason Malia
+ */
+
+class Varint {
+	
+	//the most bytes a number of 63 bits takes
+	static final int MAX_BYTES = 9;
+	
+	private Varint()
+	{
+	}
+	
+	/**
+	 * Writes a number into an array
+	 * 
+	 * @param out The array, with room for MAX_BYTES from off
+	 * @param off The index to write the first byte at
+	 * @param number The number, at least 0
+	 * @return the index after the last byte written
+	 */
+	static int put(byte[] out, int off, long number)
+	{
+		while (number>=0x80)
+		{
+			out[off++] = (byte)(number & 0x7F | 0x80);
+			number >>>= 7;
+		}
+		out[off++] = (byte)number;
+		return off;
+	}
+	
+	/**
+	 * Writes a number into a buffer
+	 * 
+	 * @param out The buffer, from its position
+	 * @param number The number, at least 0
+	 */
+	static void put(ByteBuffer out, long number)
+	{
+		while (number>=0x80)
+		{
+			out.put((byte)(number & 0x7F | 0x80));
+			number >>>= 7;
+		}
+		out.put((byte)number);
+	}
+	
+	/**
+	 * Writes a number to a stream
+	 * 
+	 * @param out The stream
+	 * @param number The number, at least 0
+	 * @throws IOException if the stream fails
+	 */
+	static void write(OutputStream out, long number) throws IOException
+	{
+		byte[] bytes = new byte[MAX_BYTES];
+		out.write(bytes, 0, put(bytes, 0, number));
+	}
+	
+	/**
+	 * Reads a number from an array
+	 * 
+	 * @param data The array
+	 * @param pos The index to read from, which is moved past the number
+	 * @return the number, or -1 if the array ends inside it or it does not fit in 63 bits
+	 */
+	static long get(byte[] data, int[] pos)
+	{
+		long number = 0;
+		for (int shift=0; shift<63 && pos[0]<data.length; shift+=7)
+		{
+			int b = data[pos[0]++];
+			number |= (long)(b & 0x7F)<<shift;
+			if (b>=0)
+			{
+				return number;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reads a number from a buffer
+	 * 
+	 * @param in The buffer, from its position, which is moved past the number
+	 * @return the number, or -1 if it does not fit in 63 bits
+	 * @throws java.nio.BufferUnderflowException if the buffer ends inside the number
+	 */
+	static long get(ByteBuffer in)
+	{
+		long number = 0;
+		for (int shift=0; shift<63; shift+=7)
+		{
+			int b = in.get();
+			number |= (long)(b & 0x7F)<<shift;
+			if (b>=0)
+			{
+				return number;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reads a number from a stream
+	 * 
+	 * @param in The stream
+	 * @return the number, or -1 if the stream ends before its first byte
+	 * @throws EOFException if the stream ends inside the number
+	 * @throws IOException if the stream fails or the number does not fit in 63 bits
+	 */
+	static long read(InputStream in) throws IOException
+	{
+		long number = 0;
+		for (int shift=0; shift<63; shift+=7)
+		{
+			int b = in.read();
+			if (b<0)
+			{
+				if (shift==0)
+				{
+					return -1;
+				}
+				throw new EOFException("stream ends inside a number");
+			}
+			number |= (long)(b & 0x7F)<<shift;
+			if (b<0x80)
+			{
+				return number;
+			}
+		}
+		throw new IOException("number too long");
+	}
+}